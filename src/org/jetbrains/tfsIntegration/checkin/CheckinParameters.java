@@ -178,14 +178,23 @@ public class CheckinParameters {
             }
 
             try {
-              Collection<Annotation> overridesAnnotations = new ArrayList<>();
-              for (String teamProjectPath : teamProjects) {
-                overridesAnnotations.addAll(
-                  server.getVCS().queryAnnotations(TFSConstants.OVERRRIDES_ANNOTATION, teamProjectPath, myPanel.getProject(), null, false));
+              // policies turned on in settings are queried together with overrides
+              TfsCheckinPoliciesCompatibility compatibility = TFSConfigurationManager.getInstance().getCheckinPoliciesCompatibility();
+              List<String> annotationNames = new ArrayList<>(3);
+              annotationNames.add(TFSConstants.OVERRRIDES_ANNOTATION);
+              if (compatibility.teamExplorer) {
+                annotationNames.add(TFSConstants.TFS_CHECKIN_POLICIES_ANNOTATION);
               }
+              if (compatibility.teamprise) {
+                annotationNames.add(TFSConstants.STATEFUL_CHECKIN_POLICIES_ANNOTATION);
+              }
+              Map<String, Collection<Annotation>> nameToAnnotations =
+                server.getVCS().queryAnnotations(annotationNames, teamProjects, myPanel.getProject(), null);
+              pi.checkCanceled();
+              Collection<Annotation> overridesAnnotations = nameToAnnotations.get(TFSConstants.OVERRRIDES_ANNOTATION);
 
-              boolean teamExplorerFound = TFSConfigurationManager.getInstance().getCheckinPoliciesCompatibility().teamExplorer;
-              boolean teampriseFound = TFSConfigurationManager.getInstance().getCheckinPoliciesCompatibility().teamprise;
+              boolean teamExplorerFound = compatibility.teamExplorer;
+              boolean teampriseFound = compatibility.teamprise;
               for (Annotation annotation : overridesAnnotations) {
                 if (annotation.getValue() == null) continue;
                 String teamProject = VersionControlPath.getPathToProject(annotation.getItem());
@@ -197,14 +206,21 @@ public class CheckinParameters {
                 teampriseFound |= override.teamprise;
               }
 
-              if (teamExplorerFound) {
-                Collection<Annotation> annotations = new ArrayList<>();
-                for (String teamProjectPath : teamProjects) {
-                  annotations.addAll(server.getVCS()
-                                       .queryAnnotations(TFSConstants.TFS_CHECKIN_POLICIES_ANNOTATION, teamProjectPath,
-                                                         myPanel.getProject(), null, false));
-                }
+              // policies turned off in settings are queried only if overrides turn them on for some team project
+              List<String> overriddenNames = new ArrayList<>(2);
+              if (teamExplorerFound && !compatibility.teamExplorer) {
+                overriddenNames.add(TFSConstants.TFS_CHECKIN_POLICIES_ANNOTATION);
+              }
+              if (teampriseFound && !compatibility.teamprise) {
+                overriddenNames.add(TFSConstants.STATEFUL_CHECKIN_POLICIES_ANNOTATION);
+              }
+              if (!overriddenNames.isEmpty()) {
+                nameToAnnotations.putAll(server.getVCS().queryAnnotations(overriddenNames, teamProjects, myPanel.getProject(), null));
+                pi.checkCanceled();
+              }
 
+              if (teamExplorerFound) {
+                Collection<Annotation> annotations = nameToAnnotations.get(TFSConstants.TFS_CHECKIN_POLICIES_ANNOTATION);
                 for (Annotation annotation : annotations) {
                   if (annotation.getValue() == null) continue;
                   String teamProject = VersionControlPath.getPathToProject(annotation.getItem());
@@ -221,12 +237,7 @@ public class CheckinParameters {
               }
 
               if (teampriseFound) {
-                Collection<Annotation> annotations = new ArrayList<>();
-                for (String teamProjectPath : teamProjects) {
-                  annotations.addAll(server.getVCS()
-                                       .queryAnnotations(TFSConstants.STATEFUL_CHECKIN_POLICIES_ANNOTATION, teamProjectPath,
-                                                         myPanel.getProject(), null, false));
-                }
+                Collection<Annotation> annotations = nameToAnnotations.get(TFSConstants.STATEFUL_CHECKIN_POLICIES_ANNOTATION);
                 for (Annotation annotation : annotations) {
                   if (annotation.getValue() == null) continue;
                   String teamProject = VersionControlPath.getPathToProject(annotation.getItem());
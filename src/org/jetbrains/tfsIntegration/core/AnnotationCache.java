@@ -0,0 +1,199 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.util.io.DigestUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.tfsIntegration.core.tfs.TfsRevisionNumber;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Annotations computed before, kept between IDE sessions: changesets of the lines of a file revision.
+ * Annotating a newer revision of the file then needs to go through the revisions added since.
+ */
+class AnnotationCache {
+
+  private static final Logger LOG = Logger.getInstance(AnnotationCache.class.getName());
+
+  // number of annotated revisions kept, least recently used are removed; 0 turns the cache off
+  private static final int MAX_ENTRIES = Integer.getInteger("org.jetbrains.tfsIntegration.annotationCacheSize", 1000);
+
+  private static final int VERSION = 1;
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  private static class CacheHolder {
+    private static final AnnotationCache ourInstance =
+      MAX_ENTRIES > 0 ? new AnnotationCache(new File(PathManager.getSystemPath(), "tfs" + File.separator + "annotations")) : null;
+  }
+
+  /**
+   * @return null if the cache is turned off
+   */
+  @Nullable
+  static AnnotationCache getInstance() {
+    return CacheHolder.ourInstance;
+  }
+
+  private final File myDir;
+  // names of the cached files, access ordered, least recently used go first; read from disk on first use
+  @Nullable private LinkedHashMap<String, File> myFiles;
+
+  private AnnotationCache(@NotNull File dir) {
+    myDir = dir;
+  }
+
+  /**
+   * @param revisions revisions of the file that lines may be annotated with
+   * @return annotation of given revision or null if it was not cached or refers to revisions not in {@code revisions}
+   */
+  @Nullable
+  synchronized VcsFileRevision[] find(@NotNull String serverUri,
+                                      @NotNull TFSFileRevision revision,
+                                      @NotNull Iterable<TFSFileRevision> revisions) {
+    String key = getKey(serverUri, revision);
+    File file = getFiles().get(getFileName(key));
+    if (file == null) {
+      return null;
+    }
+
+    Map<Integer, TFSFileRevision> changesetToRevision = new HashMap<>();
+    for (TFSFileRevision r : revisions) {
+      changesetToRevision.put(r.getRevisionNumber().getValue(), r);
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != VERSION || !key.equals(in.readUTF())) {
+        return null;
+      }
+      VcsFileRevision[] result = new VcsFileRevision[in.readInt()];
+      // lines are stored as runs of the same changeset
+      int line = 0;
+      while (line < result.length) {
+        TFSFileRevision lineRevision = changesetToRevision.get(in.readInt());
+        int count = in.readInt();
+        if (lineRevision == null || count <= 0 || line + count > result.length) {
+          return null;
+        }
+        Arrays.fill(result, line, line + count, lineRevision);
+        line += count;
+      }
+      //noinspection ResultOfMethodCallIgnored
+      file.setLastModified(System.currentTimeMillis());
+      return result;
+    }
+    catch (FileNotFoundException e) {
+      getFiles().remove(file.getName());
+      return null;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read cached annotation " + file, e);
+      return null;
+    }
+  }
+
+  synchronized void put(@NotNull String serverUri, @NotNull TFSFileRevision revision, @NotNull VcsFileRevision[] lineRevisions) {
+    String key = getKey(serverUri, revision);
+    try {
+      FileUtil.createDirectory(myDir);
+      File tempFile = FileUtil.createTempFile(myDir, "annotation", TEMP_FILE_SUFFIX, true, false);
+      try {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+          out.writeInt(VERSION);
+          out.writeUTF(key);
+          out.writeInt(lineRevisions.length);
+          int line = 0;
+          while (line < lineRevisions.length) {
+            int changeset = getChangeset(lineRevisions[line]);
+            int count = 1;
+            while (line + count < lineRevisions.length && lineRevisions[line + count] == lineRevisions[line]) {
+              count++;
+            }
+            out.writeInt(changeset);
+            out.writeInt(count);
+            line += count;
+          }
+        }
+        File file = new File(myDir, getFileName(key));
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        getFiles().put(file.getName(), file);
+      }
+      finally {
+        FileUtil.delete(tempFile);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save annotation of " + key, e);
+      return;
+    }
+    evict();
+  }
+
+  private void evict() {
+    Iterator<File> iterator = getFiles().values().iterator();
+    while (myFiles.size() > MAX_ENTRIES && iterator.hasNext()) {
+      FileUtil.delete(iterator.next());
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Files are listed once, then the order of use is kept in memory. Modification times keep it between IDE sessions.
+   */
+  @NotNull
+  private LinkedHashMap<String, File> getFiles() {
+    if (myFiles == null) {
+      myFiles = new LinkedHashMap<>(16, 0.75f, true);
+      File[] files = myDir.listFiles();
+      if (files != null) {
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+          if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+            // left by a crash while saving
+            FileUtil.delete(file);
+          }
+          else {
+            myFiles.put(file.getName(), file);
+          }
+        }
+      }
+    }
+    return myFiles;
+  }
+
+  private static String getFileName(String key) {
+    return StringUtil.toHexString(DigestUtil.md5().digest(key.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String getKey(String serverUri, TFSFileRevision revision) {
+    TfsRevisionNumber revisionNumber = (TfsRevisionNumber)revision.getRevisionNumber();
+    return serverUri + "|" + revisionNumber.getItemId() + "|" + revisionNumber.getValue();
+  }
+
+  private static int getChangeset(VcsFileRevision revision) {
+    return ((TfsRevisionNumber)revision.getRevisionNumber()).getValue();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core;
+
+import com.intellij.concurrency.SensitiveProgressWrapper;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.ExceptionUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.tfsIntegration.core.tfs.AnnotationBuilder;
+import org.jetbrains.tfsIntegration.webservice.TfsRequestManager;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Provides contents of file revisions to {@link AnnotationBuilder} while downloading the revisions that follow in background.
+ * Downloads not requested by the time the annotation is built are cancelled by {@link #dispose()}.
+ */
+class AnnotationContentLoader implements AnnotationBuilder.ContentProvider {
+  // number of revisions downloaded ahead of the one requested, 0 means revisions are downloaded on request
+  private static final int PREFETCH_REVISIONS = Math.max(0, Integer.getInteger("org.jetbrains.tfsIntegration.annotationPrefetch", 4));
+  private static final Executor ourDownloadsExecutor =
+    TfsRequestManager.createTasksExecutor("TFS Annotation Downloads", Math.max(1, PREFETCH_REVISIONS));
+
+  private final FilePath myLocalPath;
+  private final List<TFSFileRevision> myRevisions;
+  @Nullable private final ProgressIndicator myProgressIndicator;
+  private final ProgressIndicator myDownloadsIndicator;
+  // downloads by revision index, consumed ones are nulled out so that their content can be collected
+  private final List<Future<String>> myDownloads = new ArrayList<>();
+  private int myLastRequested = -1;
+
+  AnnotationContentLoader(@NotNull FilePath localPath, @NotNull List<TFSFileRevision> revisions) {
+    myLocalPath = localPath;
+    myRevisions = revisions;
+    myProgressIndicator = ProgressManager.getInstance().getProgressIndicator();
+    myDownloadsIndicator = new SensitiveProgressWrapper(myProgressIndicator != null ? myProgressIndicator : new EmptyProgressIndicator());
+  }
+
+  @Override
+  public String getContent(final TFSFileRevision revision) throws VcsException {
+    TFSProgressUtil.checkCanceled(myProgressIndicator);
+    int index = indexOf(revision);
+    if (PREFETCH_REVISIONS == 0 || index == -1) {
+      return loadContent(revision);
+    }
+    myLastRequested = index;
+
+    int lastToDownload = Math.min(index + PREFETCH_REVISIONS, myRevisions.size() - 1);
+    while (myDownloads.size() <= lastToDownload) {
+      final TFSFileRevision next = myRevisions.get(myDownloads.size());
+      myDownloads.add(TfsRequestManager.submit(() -> loadContent(next), myDownloadsIndicator, ourDownloadsExecutor));
+    }
+    Future<String> download = myDownloads.set(index, null);
+    return download != null ? waitFor(download) : loadContent(revision);
+  }
+
+  /**
+   * Cancels downloads that are still in progress
+   */
+  void dispose() {
+    myDownloadsIndicator.cancel();
+    for (Future<String> download : myDownloads) {
+      if (download != null) {
+        download.cancel(false);
+      }
+    }
+    myDownloads.clear();
+  }
+
+  // revisions are requested one after another
+  private int indexOf(TFSFileRevision revision) {
+    for (int i = myLastRequested + 1; i < myRevisions.size(); i++) {
+      if (myRevisions.get(i) == revision) {
+        return i;
+      }
+    }
+    return myRevisions.indexOf(revision);
+  }
+
+  private String waitFor(Future<String> download) throws VcsException {
+    TFSProgressUtil.checkCanceled(myProgressIndicator);
+    try {
+      return TfsRequestManager.waitFor(download);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof VcsException) {
+        throw (VcsException)cause;
+      }
+      ExceptionUtil.rethrowUnchecked(cause);
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private String loadContent(TFSFileRevision revision) throws VcsException {
+    final String content = revision.createContentRevision().getContent();
+    if (content == null) {
+      final String errorMessage = MessageFormat
+        .format("Cannot load content for file ''{0}'', rev. {1}", myLocalPath.getPresentableUrl(), revision.getRevisionNumber().getValue());
+      throw new VcsException(errorMessage);
+    }
+    return content;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core;
+
+import com.intellij.openapi.project.Project;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.Changeset;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.tfsIntegration.core.tfs.WorkspaceInfo;
+import org.jetbrains.tfsIntegration.exceptions.TfsException;
+
+import java.util.*;
+
+/**
+ * Change lists of a workspace loaded together. Once changes of one of them are requested, changesets of the lists
+ * that follow are queried along with it, so that browsing or caching the lists does not take a request per list.
+ * The batch keeps changeset numbers rather than the lists, and is referenced by the lists until their changes are loaded,
+ * so it goes away together with them.
+ */
+class ChangesetsBatch {
+  private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.changesetsBatchSize", 32));
+
+  private final WorkspaceInfo myWorkspace;
+  private final Project myProject;
+  private final Set<Integer> myNotQueried = new LinkedHashSet<>();
+  private final Map<Integer, Changeset> myQueried = new HashMap<>();
+
+  ChangesetsBatch(@NotNull WorkspaceInfo workspace, Project project) {
+    myWorkspace = workspace;
+    myProject = project;
+  }
+
+  /**
+   * Makes the list load its changes through this batch
+   */
+  synchronized void add(@NotNull TFSChangeList list) {
+    myNotQueried.add((int)list.getNumber());
+    list.setBatch(this);
+  }
+
+  /**
+   * @return changeset with its changes
+   */
+  @NotNull
+  synchronized Changeset take(int changesetId) throws TfsException {
+    Changeset changeset = myQueried.remove(changesetId);
+    if (changeset != null) {
+      return changeset;
+    }
+
+    List<Integer> changesetIds = new ArrayList<>(BATCH_SIZE);
+    changesetIds.add(changesetId);
+    myNotQueried.remove(changesetId);
+    for (Iterator<Integer> i = myNotQueried.iterator(); i.hasNext() && changesetIds.size() < BATCH_SIZE; ) {
+      changesetIds.add(i.next());
+      i.remove();
+    }
+
+    List<Changeset> changesets =
+      myWorkspace.getServer().getVCS().queryChangesets(changesetIds, myProject, TFSBundle.message("loading.changes"));
+    for (int i = 1; i < changesetIds.size(); i++) {
+      myQueried.put(changesetIds.get(i), changesets.get(i));
+    }
+    return changesets.get(0);
+  }
+}
@@ -132,22 +132,32 @@ public class TFSAnnotationProvider implements AnnotationProvider {
                                   final FilePath localPath,
                                   final List<TFSFileRevision> revisions) throws VcsException {
 
-    final ProgressIndicator progressIndicator = ProgressManager.getInstance().getProgressIndicator();
-
-    final AnnotationBuilder annotationBuilder = new AnnotationBuilder(revisions, new AnnotationBuilder.ContentProvider() {
-      @Override
-      public String getContent(final TFSFileRevision revision) throws VcsException {
-        TFSProgressUtil.checkCanceled(progressIndicator);
-        final String content = revision.createContentRevision().getContent();
-        if (content == null) {
-          final String errorMessage =
-            MessageFormat.format("Cannot load content for file ''{0}'', rev. {1}", localPath.getPresentableUrl(),
-                                 revision.getRevisionNumber().getValue());
-          throw new VcsException(errorMessage);
+    final AnnotationCache cache = AnnotationCache.getInstance();
+    final String serverUri = workspace.getServer().getUri().toASCIIString();
+    // only the revisions newer than the last annotated one need to be compared
+    List<TFSFileRevision> revisionsToCompare = revisions;
+    VcsFileRevision[] baseLineRevisions = null;
+    if (cache != null) {
+      for (int i = 0; i < revisions.size(); i++) {
+        baseLineRevisions = cache.find(serverUri, revisions.get(i), revisions);
+        if (baseLineRevisions != null) {
+          revisionsToCompare = revisions.subList(0, i + 1);
+          break;
         }
-        return content;
       }
-    });
+    }
+
+    final AnnotationContentLoader contentLoader = new AnnotationContentLoader(localPath, revisionsToCompare);
+    final AnnotationBuilder annotationBuilder;
+    try {
+      annotationBuilder = new AnnotationBuilder(revisionsToCompare, contentLoader, baseLineRevisions);
+    }
+    finally {
+      contentLoader.dispose();
+    }
+    if (cache != null) {
+      cache.put(serverUri, revisions.get(0), annotationBuilder.getLineRevisions());
+    }
 
     return new TFSFileAnnotation(myVcs, workspace, annotationBuilder.getAnnotatedContent(), annotationBuilder.getLineRevisions(),
                                  localPath.getVirtualFile());
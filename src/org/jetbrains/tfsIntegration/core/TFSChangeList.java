@@ -17,12 +17,15 @@
 package org.jetbrains.tfsIntegration.core;
 
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.AbstractVcsHelper;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.versionBrowser.CommittedChangeList;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.DataInputOutputUtil;
 import com.intellij.vcsUtil.VcsUtil;
 import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.*;
 import org.jetbrains.annotations.NotNull;
@@ -34,9 +37,7 @@ import org.jetbrains.tfsIntegration.core.tfs.WorkspaceInfo;
 import org.jetbrains.tfsIntegration.core.tfs.version.ChangesetVersionSpec;
 import org.jetbrains.tfsIntegration.exceptions.TfsException;
 
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.IOException;
+import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
@@ -59,6 +60,9 @@ public class TFSChangeList implements CommittedChangeList {
   private final Map<FilePath, Pair<FilePath, Integer/*previous revision*/>> myMovedPaths = new HashMap<>();
   private URI myServerUri;
   private String myWorkspaceName;
+  @Nullable private ChangesetsBatch myBatch;
+  // paths of a list read from stream are decoded on demand, see encodePaths()
+  @Nullable private byte[] myEncodedPaths;
 
   public TFSChangeList(final TFSVcs vcs, @NotNull DataInput stream) {
     myVcs = vcs;
@@ -82,6 +86,13 @@ public class TFSChangeList implements CommittedChangeList {
     myServerUri = myWorkspace.getServer().getUri();
   }
 
+  /**
+   * @param batch changesets loaded together with this one, see {@link ChangesetsBatch#add}
+   */
+  void setBatch(@Nullable ChangesetsBatch batch) {
+    myBatch = batch;
+  }
+
   @Override
   public String getCommitterName() {
     return myAuthor;
@@ -115,22 +126,25 @@ public class TFSChangeList implements CommittedChangeList {
         if (myWorkspace != null) { // otherwise paths were read from stream
           loadChanges();
         }
+        else {
+          decodePaths();
+        }
 
         myCachedChanges = new ArrayList<>();
         for (FilePath path : myAddedPaths) {
-          myCachedChanges.add(new Change(null, TFSContentRevision.create(myVcs.getProject(), path, myRevisionNumber)));
+          myCachedChanges.add(new Change(null, createRevision(path, myRevisionNumber)));
         }
         for (Map.Entry<FilePath, Integer> entry : myDeletedPaths.entrySet()) {
-          myCachedChanges.add(new Change(TFSContentRevision.create(myVcs.getProject(), entry.getKey(), entry.getValue()), null));
+          myCachedChanges.add(new Change(createRevision(entry.getKey(), entry.getValue()), null));
         }
         for (Map.Entry<FilePath, Integer> entry : myModifiedPaths.entrySet()) {
-          TFSContentRevision beforeRevision = TFSContentRevision.create(myVcs.getProject(), entry.getKey(), entry.getValue());
-          TFSContentRevision afterRevision = TFSContentRevision.create(myVcs.getProject(), entry.getKey(), myRevisionNumber);
+          TFSContentRevision beforeRevision = createRevision(entry.getKey(), entry.getValue());
+          TFSContentRevision afterRevision = createRevision(entry.getKey(), myRevisionNumber);
           myCachedChanges.add(new Change(beforeRevision, afterRevision));
         }
         for (Map.Entry<FilePath, Pair<FilePath, Integer>> entry : myMovedPaths.entrySet()) {
-          TFSContentRevision beforeRevision = TFSContentRevision.create(myVcs.getProject(), entry.getKey(), entry.getValue().second);
-          TFSContentRevision afterRevision = TFSContentRevision.create(myVcs.getProject(), entry.getValue().first, myRevisionNumber);
+          TFSContentRevision beforeRevision = createRevision(entry.getKey(), entry.getValue().second);
+          TFSContentRevision afterRevision = createRevision(entry.getValue().first, myRevisionNumber);
 
           if (IDEADEV_29451_WORKAROUND) {
             myCachedChanges.add(new Change(beforeRevision, null));
@@ -148,6 +162,13 @@ public class TFSChangeList implements CommittedChangeList {
     return myCachedChanges;
   }
 
+  private TFSContentRevision createRevision(FilePath path, int changeset) throws TfsException {
+    // paths of loaded changes are mapped in the workspace, no need to look for it again
+    return myWorkspace != null
+           ? TFSContentRevision.create(myVcs.getProject(), myWorkspace, path, changeset)
+           : TFSContentRevision.create(myVcs.getProject(), path, changeset);
+  }
+
   @Override
   public boolean isModifiable() {
     return true;
@@ -173,24 +194,27 @@ public class TFSChangeList implements CommittedChangeList {
   void writeToStream(@NotNull DataOutput stream) throws IOException {
     stream.writeUTF(myServerUri.toString());
     stream.writeUTF(myWorkspaceName);
-    stream.writeInt(myRevisionNumber);
+    DataInputOutputUtil.writeINT(stream, myRevisionNumber);
     stream.writeUTF(myAuthor);
-    stream.writeLong(myDate.getTime());
+    DataInputOutputUtil.writeLONG(stream, myDate.getTime());
     stream.writeUTF(myComment);
-    writePathsInts(stream, myModifiedPaths);
-    writePaths(stream, myAddedPaths);
-    writePathsInts(stream, myDeletedPaths);
-    writeMoved(stream, myMovedPaths);
+    byte[] encodedPaths = myEncodedPaths != null ? myEncodedPaths : encodePaths();
+    DataInputOutputUtil.writeINT(stream, encodedPaths.length);
+    stream.write(encodedPaths);
   }
 
   private void loadChanges() {
     try {
-      Changeset changeset =
-        myWorkspace.getServer().getVCS().queryChangeset(myRevisionNumber, myVcs.getProject(), TFSBundle.message("loading.changes"));
+      Changeset changeset = myBatch != null
+                            ? myBatch.take(myRevisionNumber)
+                            : myWorkspace.getServer().getVCS()
+                              .queryChangeset(myRevisionNumber, myVcs.getProject(), TFSBundle.message("loading.changes"));
+      myBatch = null;
 
+      Map<Integer, Item> previousVersions = queryPreviousVersionsOfRenamed(changeset);
       for (com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.Change change : changeset.getChanges()
         .getChange()) {
-        processChange(changeset.getCset(), change);
+        processChange(changeset.getCset(), change, previousVersions);
       }
     }
     catch (TfsException e) {
@@ -198,8 +222,42 @@ public class TFSChangeList implements CommittedChangeList {
     }
   }
 
+  // renamed item that needs its previous path to be found, see processChange()
+  private static boolean isRenameOfExistingItem(ChangeTypeMask changeType, Item item) {
+    return changeType.contains(ChangeType_type0.Rename) &&
+           !changeType.containsAny(ChangeType_type0.Add, ChangeType_type0.Undelete, ChangeType_type0.Branch, ChangeType_type0.Delete) &&
+           item.getDid() == Integer.MIN_VALUE;
+  }
+
+  /**
+   * @return versions of renamed items just before the changeset, by item id
+   */
+  private Map<Integer, Item> queryPreviousVersionsOfRenamed(Changeset changeset) throws TfsException {
+    List<Integer> itemIds = new ArrayList<>();
+    for (com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.Change change : changeset.getChanges()
+      .getChange()) {
+      if (isRenameOfExistingItem(new ChangeTypeMask(change.getType()), change.getItem())) {
+        itemIds.add(change.getItem().getItemid());
+      }
+    }
+    if (itemIds.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    List<Item> items = myWorkspace.getServer().getVCS().queryItemsById(ArrayUtil.toIntArray(itemIds), changeset.getCset() - 1, false,
+                                                                       myVcs.getProject(), TFSBundle.message("loading.history"));
+    Map<Integer, Item> result = new HashMap<>(items.size());
+    for (Item item : items) {
+      if (item != null) {
+        result.put(item.getItemid(), item);
+      }
+    }
+    return result;
+  }
+
   private void processChange(int changeset,
-                             final com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.Change change)
+                             final com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.Change change,
+                             Map<Integer, Item> previousVersions)
     throws TfsException {
     final ChangeTypeMask changeType = new ChangeTypeMask(change.getType());
 
@@ -244,7 +302,10 @@ public class TFSChangeList implements CommittedChangeList {
         // the item was deleted in some previous checkin
         return;
       }
-      Item item = getPreviousVersion(change.getItem(), changeset);
+      Item item = previousVersions.get(change.getItem().getItemid());
+      if (item == null) {
+        item = getPreviousVersion(change.getItem(), changeset);
+      }
       FilePath originalPath = myWorkspace
         .findLocalPathByServerPath(item.getItem(), item.getType() == ItemType.Folder, getVcs().getProject());
 
@@ -272,14 +333,12 @@ public class TFSChangeList implements CommittedChangeList {
     try {
       myServerUri = new URI(stream.readUTF());
       myWorkspaceName = stream.readUTF();
-      myRevisionNumber = stream.readInt();
+      myRevisionNumber = DataInputOutputUtil.readINT(stream);
       myAuthor = stream.readUTF();
-      myDate = new Date(stream.readLong());
+      myDate = new Date(DataInputOutputUtil.readLONG(stream));
       myComment = stream.readUTF();
-      readPathsInts(stream, myModifiedPaths);
-      readPaths(stream, myAddedPaths);
-      readPathsInts(stream, myDeletedPaths);
-      readMoved(stream, myMovedPaths);
+      myEncodedPaths = new byte[DataInputOutputUtil.readINT(stream)];
+      stream.readFully(myEncodedPaths);
     }
     catch (IOException e) {
       AbstractVcsHelper.getInstance(myVcs.getProject()).showError(new VcsException(e), TFSVcs.TFS_NAME);
@@ -289,58 +348,140 @@ public class TFSChangeList implements CommittedChangeList {
     }
   }
 
-  private static void writePaths(final DataOutput stream, final Collection<FilePath> paths) throws IOException {
-    stream.writeInt(paths.size());
+  private byte[] encodePaths() throws IOException {
+    return encodePaths(myModifiedPaths, myAddedPaths, myDeletedPaths, myMovedPaths);
+  }
+
+  private void decodePaths() {
+    if (myEncodedPaths == null) {
+      return;
+    }
+    try {
+      decodePaths(myEncodedPaths, myModifiedPaths, myAddedPaths, myDeletedPaths, myMovedPaths);
+    }
+    catch (IOException | RuntimeException e) {
+      // don't show changes read partially
+      myModifiedPaths.clear();
+      myAddedPaths.clear();
+      myDeletedPaths.clear();
+      myMovedPaths.clear();
+      AbstractVcsHelper.getInstance(myVcs.getProject()).showError(new VcsException(e), TFSVcs.TFS_NAME);
+    }
+    finally {
+      myEncodedPaths = null;
+    }
+  }
+
+  /**
+   * Every path is written once: paths are sorted and each one omits the prefix it shares with the previous one.
+   * Changes refer to the paths by index, numbers are written as varints.
+   */
+  static byte[] encodePaths(Map<FilePath, Integer> modifiedPaths,
+                            Set<FilePath> addedPaths,
+                            Map<FilePath, Integer> deletedPaths,
+                            Map<FilePath, Pair<FilePath, Integer>> movedPaths) throws IOException {
+    Set<FilePath> allPaths = new HashSet<>(addedPaths);
+    allPaths.addAll(modifiedPaths.keySet());
+    allPaths.addAll(deletedPaths.keySet());
+    for (Map.Entry<FilePath, Pair<FilePath, Integer>> e : movedPaths.entrySet()) {
+      allPaths.add(e.getKey());
+      allPaths.add(e.getValue().first);
+    }
+    List<FilePath> paths = new ArrayList<>(allPaths);
+    paths.sort(Comparator.comparing(FilePath::getPath).thenComparing(FilePath::isDirectory));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    Map<FilePath, Integer> indices = new HashMap<>(paths.size());
+    DataInputOutputUtil.writeINT(out, paths.size());
+    String previousPath = "";
     for (FilePath path : paths) {
-      writePath(stream, path);
+      String pathString = path.getPath();
+      int commonPrefixLength = StringUtil.commonPrefixLength(previousPath, pathString);
+      DataInputOutputUtil.writeINT(out, commonPrefixLength);
+      out.writeUTF(pathString.substring(commonPrefixLength));
+      out.writeBoolean(path.isDirectory());
+      indices.put(path, indices.size());
+      previousPath = pathString;
     }
+
+    writePathsInts(out, modifiedPaths, indices);
+    writePaths(out, addedPaths, indices);
+    writePathsInts(out, deletedPaths, indices);
+    writeMoved(out, movedPaths, indices);
+    out.flush();
+    return bytes.toByteArray();
   }
 
-  private static void writePathsInts(final DataOutput stream, final Map<FilePath, Integer> paths) throws IOException {
-    stream.writeInt(paths.size());
-    for (Map.Entry<FilePath, Integer> e : paths.entrySet()) {
-      writePath(stream, e.getKey());
-      stream.writeInt(e.getValue());
+  static void decodePaths(byte[] encodedPaths,
+                          Map<FilePath, Integer> modifiedPaths,
+                          Set<FilePath> addedPaths,
+                          Map<FilePath, Integer> deletedPaths,
+                          Map<FilePath, Pair<FilePath, Integer>> movedPaths) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(encodedPaths));
+    FilePath[] paths = new FilePath[DataInputOutputUtil.readINT(in)];
+    String previousPath = "";
+    for (int i = 0; i < paths.length; i++) {
+      String pathString = previousPath.substring(0, DataInputOutputUtil.readINT(in)) + in.readUTF();
+      paths[i] = VcsUtil.getFilePath(pathString, in.readBoolean());
+      previousPath = pathString;
     }
+
+    readPathsInts(in, modifiedPaths, paths);
+    readPaths(in, addedPaths, paths);
+    readPathsInts(in, deletedPaths, paths);
+    readMoved(in, movedPaths, paths);
   }
 
-  private static void writeMoved(final DataOutput stream, final Map<FilePath, Pair<FilePath, Integer>> paths) throws IOException {
-    stream.writeInt(paths.size());
-    for (Map.Entry<FilePath, Pair<FilePath, Integer>> e : paths.entrySet()) {
-      writePath(stream, e.getKey());
-      writePath(stream, e.getValue().first);
-      stream.writeInt(e.getValue().second);
+  private static void writePaths(final DataOutput stream, final Collection<FilePath> paths, Map<FilePath, Integer> indices)
+    throws IOException {
+    DataInputOutputUtil.writeINT(stream, paths.size());
+    for (FilePath path : paths) {
+      DataInputOutputUtil.writeINT(stream, indices.get(path));
     }
   }
 
-  private static void writePath(final DataOutput stream, final FilePath path) throws IOException {
-    stream.writeUTF(path.getPath());
-    stream.writeBoolean(path.isDirectory());
+  private static void writePathsInts(final DataOutput stream, final Map<FilePath, Integer> paths, Map<FilePath, Integer> indices)
+    throws IOException {
+    DataInputOutputUtil.writeINT(stream, paths.size());
+    for (Map.Entry<FilePath, Integer> e : paths.entrySet()) {
+      DataInputOutputUtil.writeINT(stream, indices.get(e.getKey()));
+      DataInputOutputUtil.writeINT(stream, e.getValue());
+    }
   }
 
-  private static void readPaths(final DataInput stream, final Collection<FilePath> paths) throws IOException {
-    int count = stream.readInt();
-    for (int i = 0; i < count; i++) {
-      paths.add(readPath(stream));
+  private static void writeMoved(final DataOutput stream,
+                                 final Map<FilePath, Pair<FilePath, Integer>> paths,
+                                 Map<FilePath, Integer> indices) throws IOException {
+    DataInputOutputUtil.writeINT(stream, paths.size());
+    for (Map.Entry<FilePath, Pair<FilePath, Integer>> e : paths.entrySet()) {
+      DataInputOutputUtil.writeINT(stream, indices.get(e.getKey()));
+      DataInputOutputUtil.writeINT(stream, indices.get(e.getValue().first));
+      DataInputOutputUtil.writeINT(stream, e.getValue().second);
     }
   }
 
-  private static void readPathsInts(final DataInput stream, final Map<FilePath, Integer> paths) throws IOException {
-    int count = stream.readInt();
+  private static void readPaths(final DataInput stream, final Collection<FilePath> paths, FilePath[] dictionary) throws IOException {
+    int count = DataInputOutputUtil.readINT(stream);
     for (int i = 0; i < count; i++) {
-      paths.put(readPath(stream), stream.readInt());
+      paths.add(dictionary[DataInputOutputUtil.readINT(stream)]);
     }
   }
 
-  private static void readMoved(final DataInput stream, final Map<FilePath, Pair<FilePath, Integer>> paths) throws IOException {
-    int count = stream.readInt();
+  private static void readPathsInts(final DataInput stream, final Map<FilePath, Integer> paths, FilePath[] dictionary) throws IOException {
+    int count = DataInputOutputUtil.readINT(stream);
     for (int i = 0; i < count; i++) {
-      paths.put(readPath(stream), Pair.create(readPath(stream), stream.readInt()));
+      paths.put(dictionary[DataInputOutputUtil.readINT(stream)], DataInputOutputUtil.readINT(stream));
     }
   }
 
-  private static FilePath readPath(final DataInput stream) throws IOException {
-    return VcsUtil.getFilePath(stream.readUTF(), stream.readBoolean());
+  private static void readMoved(final DataInput stream, final Map<FilePath, Pair<FilePath, Integer>> paths, FilePath[] dictionary)
+    throws IOException {
+    int count = DataInputOutputUtil.readINT(stream);
+    for (int i = 0; i < count; i++) {
+      FilePath path = dictionary[DataInputOutputUtil.readINT(stream)];
+      paths.put(path, Pair.create(dictionary[DataInputOutputUtil.readINT(stream)], DataInputOutputUtil.readINT(stream)));
+    }
   }
 
   private Item getPreviousVersion(Item item, int changeset) throws TfsException {
@@ -18,7 +18,9 @@ package org.jetbrains.tfsIntegration.core;
 
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.CheckinProjectPanel;
 import com.intellij.openapi.vcs.FilePath;
@@ -164,6 +166,7 @@ public class TFSCheckinEnvironment implements CheckinEnvironment {
       }
     }
     final List<VcsException> errors = new ArrayList<>();
+    final Ref<Long> notUploadedSize = new Ref<>(0L);
     try {
       WorkstationHelper.processByWorkspaces(files, false, myVcs.getProject(), new WorkstationHelper.VoidProcessDelegate() {
         @Override
@@ -180,21 +183,19 @@ public class TFSCheckinEnvironment implements CheckinEnvironment {
             }
 
             Collection<String> checkIn = new ArrayList<>();
-            // upload files
-            TFSProgressUtil.setProgressText(progressIndicator, TFSBundle.message("uploading.files"));
+            List<PendingChange> upload = new ArrayList<>();
             for (PendingChange pendingChange : pendingChanges) {
               if (pendingChange.getType() == ItemType.File) {
                 ChangeTypeMask changeType = new ChangeTypeMask(pendingChange.getChg());
                 if (changeType.contains(ChangeType_type0.Edit) || changeType.contains(ChangeType_type0.Add)) {
-                  TFSProgressUtil
-                    .setProgressText2(progressIndicator, VersionControlPath.localPathFromTfsRepresentation(pendingChange.getLocal()));
-                  workspace.getServer().getVCS()
-                    .uploadItem(workspace, pendingChange, myVcs.getProject(), null);
+                  upload.add(pendingChange);
                 }
               }
               checkIn.add(pendingChange.getItem());
             }
-            TFSProgressUtil.setProgressText2(progressIndicator, "");
+            // upload files
+            TFSProgressUtil.setProgressText(progressIndicator, TFSBundle.message("uploading.files"));
+            notUploadedSize.set(notUploadedSize.get() + workspace.getServer().getVCS().uploadItems(workspace, upload, myVcs.getProject()));
 
             final WorkItemsCheckinParameters state = myVcs.getCheckinData().parameters.getWorkItems(workspace.getServer());
             final Map<WorkItem, CheckinWorkItemAction> workItemActions =
@@ -279,6 +280,10 @@ public class TFSCheckinEnvironment implements CheckinEnvironment {
     catch (TfsException e) {
       errors.add(new VcsException(e));
     }
+    if (notUploadedSize.get() > 0) {
+      TfsUtil.showBalloon(myVcs.getProject(), MessageType.INFO,
+                          TFSBundle.message("unchanged.files.not.uploaded", StringUtil.formatFileSize(notUploadedSize.get())));
+    }
     myVcs.getCheckinData().parameters = null;
     myVcs.fireRevisionChanged();
     return errors;
@@ -127,9 +127,15 @@ public class TFSCommittedChangesProvider implements CachingCommittedChangesProvi
 
     TFSRepositoryLocation tfsRepositoryLocation = (TFSRepositoryLocation)location;
 
+    // changesets are passed to the consumer as they arrive, so the limit is applied to all the items together
+    int remaining = maxCount > 0 ? maxCount : Integer.MAX_VALUE;
     try {
       for (Map.Entry<WorkspaceInfo, List<FilePath>> entry : tfsRepositoryLocation.getPathsByWorkspaces().entrySet()) {
-        WorkspaceInfo workspace = entry.getKey();
+        if (remaining <= 0) {
+          break;
+        }
+        final WorkspaceInfo workspace = entry.getKey();
+        final ChangesetsBatch batch = new ChangesetsBatch(workspace, myProject);
         final Map<FilePath, ExtendedItem> extendedItems =
           workspace.getExtendedItems(entry.getValue(), myProject, TFSBundle.message("loading.items"));
         for (Map.Entry<FilePath, ExtendedItem> localPath2ExtendedItem : extendedItems.entrySet()) {
@@ -137,6 +143,9 @@ public class TFSCommittedChangesProvider implements CachingCommittedChangesProvi
           if (extendedItem == null) {
             continue;
           }
+          if (remaining <= 0) {
+            break;
+          }
           int itemLatestVersion = getLatestChangesetId(workspace, settings.getUserFilter(), extendedItem);
 
           if (versionFrom instanceof ChangesetVersionSpec) {
@@ -157,15 +166,14 @@ public class TFSCommittedChangesProvider implements CachingCommittedChangesProvi
           final RecursionType recursionType = localPath2ExtendedItem.getKey().isDirectory() ? RecursionType.Full : null;
           ItemSpec itemSpec = VersionControlServer.createItemSpec(extendedItem.getSitem(), recursionType);
 
-          List<Changeset> changeSets = workspace.getServer().getVCS()
+          remaining -= workspace.getServer().getVCS()
             .queryHistory(workspace.getName(), workspace.getOwnerName(), itemSpec, settings.getUserFilter(), itemVersion, versionFrom,
-                          versionTo, maxCount, myProject, TFSBundle.message("loading.history"));
-          for (Changeset changeset : changeSets) {
-            final TFSChangeList newList = new TFSChangeList(workspace, changeset.getCset(), changeset.getOwner(),
-                                                            changeset.getDate().getTime(), changeset.getComment(), myVcs);
-            consumer.consume(newList);
-          }
-
+                          versionTo, maxCount > 0 ? remaining : 0, myProject, TFSBundle.message("loading.history"), changeset -> {
+                TFSChangeList newList = new TFSChangeList(workspace, changeset.getCset(), changeset.getOwner(),
+                                                          changeset.getDate().getTime(), changeset.getComment(), myVcs);
+                batch.add(newList);
+                consumer.consume(newList);
+              });
         }
       }
     }
@@ -220,7 +228,7 @@ public class TFSCommittedChangesProvider implements CachingCommittedChangesProvi
 
   @Override
   public int getFormatVersion() {
-    return 1;
+    return 2;
   }
 
   @Override
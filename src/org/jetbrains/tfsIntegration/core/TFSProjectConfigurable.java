@@ -59,6 +59,7 @@ public class TFSProjectConfigurable implements Configurable {
   @Override
   public boolean isModified() {
     if (TFSConfigurationManager.getInstance().useIdeaHttpProxy() != myComponent.useProxy()) return true;
+    if (TFSConfigurationManager.getInstance().autoMergeConflicts() != myComponent.autoMergeConflicts()) return true;
     TfsCheckinPoliciesCompatibility c = TFSConfigurationManager.getInstance().getCheckinPoliciesCompatibility();
     if (c.teamExplorer != myComponent.supportTfsCheckinPolicies()) return true;
     if (c.teamprise != myComponent.supportStatefulCheckinPolicies()) return true;
@@ -69,6 +70,7 @@ public class TFSProjectConfigurable implements Configurable {
   @Override
   public void apply() throws ConfigurationException {
     TFSConfigurationManager.getInstance().setUseIdeaHttpProxy(myComponent.useProxy());
+    TFSConfigurationManager.getInstance().setAutoMergeConflicts(myComponent.autoMergeConflicts());
     TFSConfigurationManager.getInstance().setSupportTfsCheckinPolicies(myComponent.supportTfsCheckinPolicies());
     TFSConfigurationManager.getInstance().setSupportStatefulCheckinPolicies(myComponent.supportStatefulCheckinPolicies());
     TFSConfigurationManager.getInstance().setReportNotInstalledCheckinPolicies(myComponent.reportNotInstalledCheckinPolicies());
@@ -77,6 +79,7 @@ public class TFSProjectConfigurable implements Configurable {
   @Override
   public void reset() {
     myComponent.setUserProxy(TFSConfigurationManager.getInstance().useIdeaHttpProxy());
+    myComponent.setAutoMergeConflicts(TFSConfigurationManager.getInstance().autoMergeConflicts());
     TfsCheckinPoliciesCompatibility c = TFSConfigurationManager.getInstance().getCheckinPoliciesCompatibility();
     myComponent.setSupportTfsCheckinPolicies(c.teamExplorer);
     myComponent.setSupportStatefulCheckinPolicies(c.teamprise);
@@ -28,6 +28,7 @@ import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservi
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.core.tfs.*;
+import org.jetbrains.tfsIntegration.core.tfs.conflicts.ConflictContentsPrefetcher;
 import org.jetbrains.tfsIntegration.core.tfs.conflicts.ConflictsEnvironment;
 import org.jetbrains.tfsIntegration.core.tfs.conflicts.ResolveConflictHelper;
 import org.jetbrains.tfsIntegration.core.tfs.operations.ApplyGetOperations;
@@ -58,6 +59,8 @@ public class TFSUpdateEnvironment implements UpdateEnvironment {
                                          @NotNull final Ref<SequentialUpdatesContext> context) throws ProcessCanceledException {
     final List<VcsException> exceptions = new ArrayList<>();
     TFSProgressUtil.setProgressText(progressIndicator, "Request update information");
+    // contents of conflicts are loaded while the rest of workspaces are updated and conflicts are resolved
+    final ConflictContentsPrefetcher conflictContents = new ConflictContentsPrefetcher(myVcs.getProject());
     try {
       final Map<WorkspaceInfo, Collection<Conflict>> workspace2Conflicts = new HashMap<>();
       List<FilePath> orphanPaths =
@@ -97,12 +100,14 @@ public class TFSUpdateEnvironment implements UpdateEnvironment {
             final Collection<Conflict> unresolvedConflicts = ResolveConflictHelper.getUnresolvedConflicts(conflicts);
             if (!unresolvedConflicts.isEmpty()) {
               workspace2Conflicts.put(workspace, unresolvedConflicts);
+              conflictContents.prefetch(workspace, unresolvedConflicts);
             }
           }
         });
 
       if (!workspace2Conflicts.isEmpty()) {
-        ResolveConflictHelper resolveConflictHelper = new ResolveConflictHelper(myVcs.getProject(), workspace2Conflicts, updatedFiles);
+        ResolveConflictHelper resolveConflictHelper =
+          new ResolveConflictHelper(myVcs.getProject(), workspace2Conflicts, updatedFiles, conflictContents);
         ConflictsEnvironment.getConflictsHandler().resolveConflicts(resolveConflictHelper);
       }
 
@@ -113,6 +118,9 @@ public class TFSUpdateEnvironment implements UpdateEnvironment {
     catch (TfsException e) {
       exceptions.add(new VcsException(e));
     }
+    finally {
+      conflictContents.dispose();
+    }
 
     // TODO content roots can be renamed while executing
     TfsFileUtil.refreshAndInvalidate(myVcs.getProject(), contentRoots, false);
@@ -2,11 +2,16 @@ package org.jetbrains.tfsIntegration.core;
 
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.ThrowableComputable;
 import com.microsoft.schemas.teamfoundation._2005._06.services.groupsecurity._03.GroupSecurityServiceStub;
 import com.microsoft.schemas.teamfoundation._2005._06.services.registration._03.*;
 import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.RepositoryStub;
 import com.microsoft.schemas.teamfoundation._2005._06.workitemtracking.clientservices._03.ClientService2Stub;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.client.Stub;
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpConnectionManager;
@@ -17,10 +22,12 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.core.configuration.Credentials;
 import org.jetbrains.tfsIntegration.core.tfs.TfsUtil;
 import org.jetbrains.tfsIntegration.exceptions.HostNotApplicableException;
+import org.jetbrains.tfsIntegration.webservice.TfsRequestManager;
 import org.jetbrains.tfsIntegration.webservice.WebServiceHelper;
 
 import java.net.URI;
 import java.rmi.RemoteException;
+import java.util.*;
 
 public class TfsBeansHolder {
 
@@ -28,14 +35,25 @@ public class TfsBeansHolder {
 
   private final URI myServerUri;
 
-  private RepositoryStub myRepository;
-  // Newer version of repository service. Required for several operations with local workspaces.
-  private RepositoryStub myRepository4;
-  private ClientService2Stub myWorkItemTrackingClientService;
-  private GroupSecurityServiceStub myGroupSecurityService;
-  private String myDownloadUrl;
-  private String myUploadUrl;
+  // service paths are resolved once per server while stubs are pooled on top of them: Axis2 stubs keep per-call state
+  // in their ServiceClient and can't be shared by concurrent requests, so every request borrows a set of stubs for its duration
+  private static final int MAX_POOLED_STUBS = TfsRequestManager.MAX_CONCURRENT_REQUESTS;
+  private static final long STUBS_WAIT_MS = 100;
+
+  // stubs borrowed by the request being executed by the current thread, see runRequest()
+  private static final ThreadLocal<Map<TfsBeansHolder, Stubs>> ourBorrowedStubs = new ThreadLocal<>();
+
+  private final Object myServicesLock = new Object();
+  private volatile ServicePaths myServicePaths;
+  private ConfigurationContext myConfigContext; // guarded by myServicesLock
+  private final Deque<Stubs> myIdleStubs = new ArrayDeque<>(); // guarded by myServicesLock
+  private int myStubsCount; // guarded by myServicesLock
+  private boolean myDisposed; // guarded by myServicesLock
+
   private final HttpClient[] myUploadDownloadClients = new HttpClient[2]; // regular, proxy
+  // files may be uploaded and downloaded concurrently, see VersionControlServer
+  private static final int MAX_UPLOAD_DOWNLOAD_CONNECTIONS =
+    Math.max(2, Integer.getInteger("org.jetbrains.tfsIntegration.maxUploadDownloadConnections", 8));
 
   public TfsBeansHolder(URI serverUri) {
     myServerUri = serverUri;
@@ -44,60 +62,172 @@ public class TfsBeansHolder {
   @NotNull
   public RepositoryStub getRepositoryStub(Credentials credentials, ProgressIndicator pi)
     throws HostNotApplicableException, RemoteException {
-    if (myRepository == null) {
-      createStubs(credentials, pi);
-    }
-    WebServiceHelper.setupStub(myRepository, credentials, myServerUri);
-    return myRepository;
+    RepositoryStub repository = getStubs(credentials, pi).repository;
+    WebServiceHelper.setupStub(repository, credentials, myServerUri);
+    return repository;
   }
 
   @NotNull
   public RepositoryStub getRepository4Stub(Credentials credentials, ProgressIndicator pi)
     throws HostNotApplicableException, RemoteException {
-    if (myRepository4 == null) {
-      createStubs(credentials, pi);
-    }
-    WebServiceHelper.setupStub(myRepository4, credentials, myServerUri);
-    return myRepository4;
+    RepositoryStub repository4 = getStubs(credentials, pi).repository4;
+    WebServiceHelper.setupStub(repository4, credentials, myServerUri);
+    return repository4;
   }
 
   @NotNull
   public ClientService2Stub getWorkItemServiceStub(Credentials credentials, ProgressIndicator pi)
     throws HostNotApplicableException, RemoteException {
-    if (myWorkItemTrackingClientService == null) {
-      createStubs(credentials, pi);
-    }
-    WebServiceHelper.setupStub(myWorkItemTrackingClientService, credentials, myServerUri);
-    return myWorkItemTrackingClientService;
+    ClientService2Stub workItemTrackingClientService = getStubs(credentials, pi).workItemTrackingClientService;
+    WebServiceHelper.setupStub(workItemTrackingClientService, credentials, myServerUri);
+    return workItemTrackingClientService;
   }
 
   @NotNull
   public GroupSecurityServiceStub getGroupSecurityServiceStub(Credentials credentials, ProgressIndicator pi)
     throws HostNotApplicableException, RemoteException {
-    if (myGroupSecurityService == null) {
-      createStubs(credentials, pi);
-    }
-    WebServiceHelper.setupStub(myGroupSecurityService, credentials, myServerUri);
-    return myGroupSecurityService;
+    GroupSecurityServiceStub groupSecurityService = getStubs(credentials, pi).groupSecurityService;
+    WebServiceHelper.setupStub(groupSecurityService, credentials, myServerUri);
+    return groupSecurityService;
   }
 
   @NotNull
   public String getDownloadUrl(Credentials credentials, ProgressIndicator pi) throws HostNotApplicableException, RemoteException {
-    if (myDownloadUrl == null) {
-      createStubs(credentials, pi);
-    }
-    return myDownloadUrl;
+    return getServicePaths(credentials, pi).download;
   }
 
   @NotNull
   public String getUploadUrl(Credentials credentials, ProgressIndicator pi) throws HostNotApplicableException, RemoteException {
-    if (myUploadUrl == null) {
-      createStubs(credentials, pi);
+    return getServicePaths(credentials, pi).upload;
+  }
+
+  /**
+   * Runs the request so that the stubs it uses are borrowed from the pools of their holders and returned once it completes.
+   * Requests nested into another one share its stubs.
+   */
+  public static <T, E extends Exception> T runRequest(@NotNull ThrowableComputable<T, E> request) throws E {
+    if (ourBorrowedStubs.get() != null) {
+      return request.compute();
+    }
+    Map<TfsBeansHolder, Stubs> borrowedStubs = new HashMap<>();
+    ourBorrowedStubs.set(borrowedStubs);
+    try {
+      return request.compute();
+    }
+    finally {
+      ourBorrowedStubs.remove();
+      for (Map.Entry<TfsBeansHolder, Stubs> e : borrowedStubs.entrySet()) {
+        e.getKey().returnStubs(e.getValue());
+      }
+    }
+  }
+
+  /**
+   * Releases the pooled stubs, the ones borrowed at the moment are released when returned
+   */
+  public void dispose() {
+    List<Stubs> idleStubs;
+    synchronized (myServicesLock) {
+      myDisposed = true;
+      idleStubs = new ArrayList<>(myIdleStubs);
+      myIdleStubs.clear();
+      myStubsCount -= idleStubs.size();
+      myServicesLock.notifyAll();
+    }
+    for (Stubs stubs : idleStubs) {
+      stubs.cleanup();
+    }
+  }
+
+  @NotNull
+  private Stubs getStubs(Credentials credentials, @Nullable ProgressIndicator pi) throws HostNotApplicableException, RemoteException {
+    Map<TfsBeansHolder, Stubs> borrowedStubs = ourBorrowedStubs.get();
+    if (borrowedStubs == null) {
+      LOG.error("Stubs are used outside of a request, they won't be returned to the pool");
+      borrowedStubs = new HashMap<>();
+    }
+    Stubs stubs = borrowedStubs.get(this);
+    if (stubs == null) {
+      stubs = borrowStubs(credentials, pi);
+      borrowedStubs.put(this, stubs);
+    }
+    return stubs;
+  }
+
+  /**
+   * Takes idle stubs or creates new ones, waits for stubs to be returned if there are as many as the number of concurrent requests
+   */
+  @NotNull
+  private Stubs borrowStubs(Credentials credentials, @Nullable ProgressIndicator pi) throws HostNotApplicableException, RemoteException {
+    ServicePaths servicePaths = getServicePaths(credentials, pi);
+    ConfigurationContext configContext;
+    synchronized (myServicesLock) {
+      while (myIdleStubs.isEmpty() && myStubsCount >= MAX_POOLED_STUBS && !myDisposed) {
+        try {
+          myServicesLock.wait(STUBS_WAIT_MS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ProcessCanceledException(e);
+        }
+        if (pi != null) {
+          pi.checkCanceled();
+        }
+        else {
+          ProgressManager.checkCanceled();
+        }
+      }
+      if (!myIdleStubs.isEmpty()) {
+        return myIdleStubs.pop();
+      }
+      myStubsCount++;
+      if (myConfigContext == null) {
+        myConfigContext = WebServiceHelper.getStubConfigurationContext();
+      }
+      configContext = myConfigContext;
+    }
+
+    try {
+      return new Stubs(configContext, myServerUri, servicePaths);
+    }
+    catch (AxisFault | RuntimeException e) {
+      synchronized (myServicesLock) {
+        myStubsCount--;
+        myServicesLock.notifyAll();
+      }
+      throw e;
+    }
+  }
+
+  private void returnStubs(@NotNull Stubs stubs) {
+    synchronized (myServicesLock) {
+      if (!myDisposed) {
+        myIdleStubs.push(stubs);
+        myServicesLock.notifyAll();
+        return;
+      }
+      myStubsCount--;
+    }
+    stubs.cleanup();
+  }
+
+  @NotNull
+  private ServicePaths getServicePaths(Credentials credentials, @Nullable ProgressIndicator pi)
+    throws HostNotApplicableException, RemoteException {
+    ServicePaths servicePaths = myServicePaths;
+    if (servicePaths == null) {
+      synchronized (myServicesLock) {
+        servicePaths = myServicePaths;
+        if (servicePaths == null) {
+          servicePaths = loadServicePaths(credentials, pi);
+          myServicePaths = servicePaths;
+        }
+      }
     }
-    return myUploadUrl;
+    return servicePaths;
   }
 
-  private void createStubs(Credentials authorizedCredentials, @Nullable ProgressIndicator pi)
+  private ServicePaths loadServicePaths(Credentials authorizedCredentials, @Nullable ProgressIndicator pi)
     throws RemoteException, HostNotApplicableException {
     LOG.assertTrue(!ApplicationManager.getApplication().isDispatchThread());
 
@@ -145,42 +275,20 @@ public class TfsBeansHolder {
     if (groupSecurityService == null) {
       throw new HostNotApplicableException(null);
     }
-    doCreateStubs(configContext, isccProvider, isccProvider4, download, upload, workItemService, groupSecurityService);
+    myConfigContext = configContext;
 
     if (pi != null) {
       pi.setText(piText);
     }
+    return new ServicePaths(isccProvider, isccProvider4, download, upload, workItemService, groupSecurityService);
   }
 
-  private void doCreateStubs(@Nullable ConfigurationContext configContext,
-                             String isccProvider,
-                             String isccProvider4,
-                             String download,
-                             String upload,
-                             String workItemService,
-                             String groupSecurity) {
-    myDownloadUrl = download;
-    myUploadUrl = upload;
-    try {
-      if (configContext == null) {
-        configContext = WebServiceHelper.getStubConfigurationContext();
-      }
-      myRepository = new RepositoryStub(configContext, TfsUtil.appendPath(myServerUri, isccProvider));
-      myRepository4 = new RepositoryStub(configContext, TfsUtil.appendPath(myServerUri, isccProvider4));
-      myWorkItemTrackingClientService =
-        new ClientService2Stub(configContext, TfsUtil.appendPath(myServerUri, workItemService));
-      myGroupSecurityService =
-        new GroupSecurityServiceStub(configContext, TfsUtil.appendPath(myServerUri, groupSecurity));
-    }
-    catch (Exception e) {
-      LOG.error("Failed to initialize web service stub", e);
-    }
-  }
-  
-  public HttpClient getUploadDownloadClient(boolean forProxy) {
+  public synchronized HttpClient getUploadDownloadClient(boolean forProxy) {
     int index = forProxy ? 1 : 0;
     if (myUploadDownloadClients[index] == null) {
       HttpConnectionManager connManager = new MultiThreadedHttpConnectionManager();
+      connManager.getParams().setDefaultMaxConnectionsPerHost(MAX_UPLOAD_DOWNLOAD_CONNECTIONS);
+      connManager.getParams().setMaxTotalConnections(Math.max(MAX_UPLOAD_DOWNLOAD_CONNECTIONS, 20));
       myUploadDownloadClients[index] = new HttpClient(connManager);
       HttpClientParams clientParams = new HttpClientParams();
       // Set the default timeout in case we have a connection pool starvation to 30sec
@@ -212,5 +320,55 @@ public class TfsBeansHolder {
     return null;
   }
 
+  private static class ServicePaths {
+    private final String isccProvider;
+    private final String isccProvider4;
+    private final String download;
+    private final String upload;
+    private final String workItemService;
+    private final String groupSecurity;
+
+    private ServicePaths(String isccProvider,
+                         String isccProvider4,
+                         String download,
+                         String upload,
+                         String workItemService,
+                         String groupSecurity) {
+      this.isccProvider = isccProvider;
+      this.isccProvider4 = isccProvider4;
+      this.download = download;
+      this.upload = upload;
+      this.workItemService = workItemService;
+      this.groupSecurity = groupSecurity;
+    }
+  }
+
+  private static class Stubs {
+    private final RepositoryStub repository;
+    // Newer version of repository service. Required for several operations with local workspaces.
+    private final RepositoryStub repository4;
+    private final ClientService2Stub workItemTrackingClientService;
+    private final GroupSecurityServiceStub groupSecurityService;
+
+    private Stubs(@Nullable ConfigurationContext configContext, URI serverUri, ServicePaths paths) throws AxisFault {
+      repository = new RepositoryStub(configContext, TfsUtil.appendPath(serverUri, paths.isccProvider));
+      repository4 = new RepositoryStub(configContext, TfsUtil.appendPath(serverUri, paths.isccProvider4));
+      workItemTrackingClientService = new ClientService2Stub(configContext, TfsUtil.appendPath(serverUri, paths.workItemService));
+      groupSecurityService = new GroupSecurityServiceStub(configContext, TfsUtil.appendPath(serverUri, paths.groupSecurity));
+    }
 
+    /**
+     * Removes services of the stubs from the shared Axis2 configuration
+     */
+    private void cleanup() {
+      for (Stub stub : new Stub[]{repository, repository4, workItemTrackingClientService, groupSecurityService}) {
+        try {
+          stub._getServiceClient().cleanup();
+        }
+        catch (AxisFault e) {
+          LOG.info(e);
+        }
+      }
+    }
+  }
 }
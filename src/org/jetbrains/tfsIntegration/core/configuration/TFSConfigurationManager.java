@@ -56,6 +56,7 @@ public class TFSConfigurationManager implements PersistentStateComponent<TFSConf
     public boolean supportTfsCheckinPolicies = true;
     public boolean supportStatefulCheckinPolicies = true;
     public boolean reportNotInstalledCheckinPolicies = true;
+    public boolean autoMergeConflicts = false;
   }
 
   private Map<String, ServerConfiguration> myServersConfig = new HashMap<>();
@@ -63,6 +64,7 @@ public class TFSConfigurationManager implements PersistentStateComponent<TFSConf
   private boolean mySupportTfsCheckinPolicies = true;
   private boolean mySupportStatefulCheckinPolicies = true;
   private boolean myReportNotInstalledCheckinPolicies = true;
+  private boolean myAutoMergeConflicts = false;
 
   @NotNull
   public static synchronized TFSConfigurationManager getInstance() {
@@ -163,6 +165,7 @@ public class TFSConfigurationManager implements PersistentStateComponent<TFSConf
     mySupportTfsCheckinPolicies = state.supportTfsCheckinPolicies;
     mySupportStatefulCheckinPolicies = state.supportStatefulCheckinPolicies;
     myReportNotInstalledCheckinPolicies = state.reportNotInstalledCheckinPolicies;
+    myAutoMergeConflicts = state.autoMergeConflicts;
   }
 
   @Override
@@ -173,6 +176,7 @@ public class TFSConfigurationManager implements PersistentStateComponent<TFSConf
     state.supportTfsCheckinPolicies = mySupportTfsCheckinPolicies;
     state.useIdeaHttpProxy = myUseIdeaHttpProxy;
     state.reportNotInstalledCheckinPolicies = myReportNotInstalledCheckinPolicies;
+    state.autoMergeConflicts = myAutoMergeConflicts;
     return state;
   }
 
@@ -241,4 +245,15 @@ public class TFSConfigurationManager implements PersistentStateComponent<TFSConf
   public void setReportNotInstalledCheckinPolicies(boolean reportNotInstalledCheckinPolicies) {
     myReportNotInstalledCheckinPolicies = reportNotInstalledCheckinPolicies;
   }
+
+  public void setAutoMergeConflicts(boolean autoMergeConflicts) {
+    myAutoMergeConflicts = autoMergeConflicts;
+  }
+
+  /**
+   * @return true if content conflicts which changes don't overlap should be merged without asking the user
+   */
+  public boolean autoMergeConflicts() {
+    return myAutoMergeConflicts;
+  }
 }
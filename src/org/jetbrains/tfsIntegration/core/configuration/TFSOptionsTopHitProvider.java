@@ -31,6 +31,7 @@ final class TFSOptionsTopHitProvider implements OptionsSearchTopHitProvider.Proj
       if ("TFS".equals(descriptor.getDisplayName())) {
         return Collections.unmodifiableCollection(Arrays.<BooleanOptionDescription>asList(
           new Option("TFS: Use HTTP Proxy settings", null, "useIdeaHttpProxy", "setUseIdeaHttpProxy"),
+          new Option("TFS: Merge non-overlapping conflicts automatically", null, "autoMergeConflicts", "setAutoMergeConflicts"),
           new Option("TFS: Evaluate Team Explorer policies", "teamExplorer", null, "setSupportTfsCheckinPolicies"),
           new Option("TFS: Evaluate Teamprise policies", "teamprise", null, "setSupportStatefulCheckinPolicies"),
           new Option("TFS: Warn about not installed policies", "nonInstalled", null, "setReportNotInstalledCheckinPolicies")));
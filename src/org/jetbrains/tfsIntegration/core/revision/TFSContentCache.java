@@ -0,0 +1,335 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.revision;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.ShutDownTracker;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.io.DigestUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.tfsIntegration.core.tfs.TfsFileUtil;
+import org.jetbrains.tfsIntegration.exceptions.TfsException;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Content of item revisions kept between IDE sessions. Contents are stored once per MD5 hash, so that the same content of different
+ * items or revisions takes place once. Least recently used contents are removed when the cache grows over its size limit.
+ */
+public class TFSContentCache {
+
+  private static final Logger LOG = Logger.getInstance(TFSContentCache.class.getName());
+
+  // 0 turns the cache off, then contents are kept in temporary files until IDE exits
+  private static final long MAX_SIZE = Long.getLong("org.jetbrains.tfsIntegration.contentCacheSizeMb", 512) * 1024 * 1024;
+
+  @NonNls private static final String INDEX_FILE_NAME = "index";
+  @NonNls private static final String TEMP_FILE_SUFFIX = ".tmp";
+  private static final int INDEX_VERSION = 1;
+  // index is rewritten after this many saved contents and on IDE exit
+  private static final int INDEX_SAVE_BATCH = Integer.getInteger("org.jetbrains.tfsIntegration.contentCacheIndexBatch", 32);
+
+  private static class Content {
+    private final String myName;
+    private final long mySize;
+    private final Set<String> myRevisionKeys = new HashSet<>(1);
+
+    private Content(String name, long size) {
+      myName = name;
+      mySize = size;
+    }
+  }
+
+  private final File myDir;
+  private final long myMaxSize;
+  // access ordered, least recently used content goes first
+  private final LinkedHashMap<String, Content> myContents = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, Content> myRevisions = new HashMap<>();
+  private long myTotalSize;
+  private boolean myIndexModified;
+  private int myUnsavedContents;
+
+  private static class CacheHolder {
+    private static final TFSContentCache ourInstance = MAX_SIZE > 0 ? new TFSContentCache(getCacheDir()) : null;
+  }
+
+  /**
+   * @return null if the cache is turned off
+   */
+  @Nullable
+  public static TFSContentCache getInstance() {
+    return CacheHolder.ourInstance;
+  }
+
+  private static File getCacheDir() {
+    return new File(PathManager.getSystemPath(), "tfs" + File.separator + "content");
+  }
+
+  TFSContentCache(@NotNull File dir) {
+    this(dir, MAX_SIZE);
+  }
+
+  TFSContentCache(@NotNull File dir, long maxSize) {
+    myDir = dir;
+    myMaxSize = maxSize;
+    loadIndex();
+    ShutDownTracker.getInstance().registerShutdownTask(this::saveIndexIfModified);
+  }
+
+  /**
+   * @return content of the revision saved before or null if it is not in the cache
+   */
+  @Nullable
+  public synchronized TFSContentStore find(@NotNull String serverUri, int itemId, int revision) {
+    String revisionKey = getRevisionKey(serverUri, itemId, revision);
+    Content content = myRevisions.get(revisionKey);
+    return content != null ? touch(content, revisionKey) : null;
+  }
+
+  /**
+   * @return content with given hash if it is in the cache (saved for another item or revision), null otherwise
+   */
+  @Nullable
+  public synchronized TFSContentStore find(@NotNull String serverUri, int itemId, int revision, @Nullable byte[] hash) {
+    TFSContentStore result = find(serverUri, itemId, revision);
+    if (result != null || hash == null) {
+      return result;
+    }
+    Content content = myContents.get(getContentName(hash));
+    if (content == null) {
+      return null;
+    }
+    String revisionKey = getRevisionKey(serverUri, itemId, revision);
+    addRevision(content, revisionKey);
+    return touch(content, revisionKey);
+  }
+
+  /**
+   * @param hash expected content hash, if known
+   */
+  @NotNull
+  public TFSContentStore create(@NotNull String serverUri, int itemId, int revision, @Nullable byte[] hash) {
+    return new CachedStore(getRevisionKey(serverUri, itemId, revision), hash, null);
+  }
+
+  /**
+   * Content of a revision in the cache. Saving replaces the content the revision is mapped to, so a store returned by
+   * {@link #find} behaves the same way as one returned by {@link #create}.
+   */
+  private class CachedStore implements TFSContentStore {
+    private final String myRevisionKey;
+    @Nullable private final byte[] myHash;
+    private File myFile;
+
+    private CachedStore(String revisionKey, @Nullable byte[] hash, @Nullable File file) {
+      myRevisionKey = revisionKey;
+      myHash = hash;
+      myFile = file;
+    }
+
+    @Override
+    public void saveContent(TfsFileUtil.ContentWriter contentWriter) throws TfsException, IOException {
+      myFile = save(myRevisionKey, myHash, contentWriter);
+    }
+
+    @NotNull
+    @Override
+    public byte[] loadContent() throws IOException {
+      return FileUtil.loadFileBytes(getFile());
+    }
+
+    @NotNull
+    @Override
+    public InputStream openContent() throws IOException {
+      return new BufferedInputStream(new FileInputStream(getFile()));
+    }
+
+    private File getFile() throws IOException {
+      if (myFile == null) {
+        throw new IOException("Content is not saved");
+      }
+      return myFile;
+    }
+  }
+
+  private File save(String revisionKey, @Nullable byte[] hash, TfsFileUtil.ContentWriter contentWriter) throws TfsException, IOException {
+    FileUtil.createDirectory(myDir);
+    File tempFile = FileUtil.createTempFile(myDir, "content", TEMP_FILE_SUFFIX, true, false);
+    try {
+      MessageDigest digest = DigestUtil.md5();
+      try (OutputStream stream = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), digest)) {
+        contentWriter.write(stream);
+      }
+      byte[] actualHash = digest.digest();
+      if (hash != null && !Arrays.equals(hash, actualHash)) {
+        // incomplete or corrupted download must not be served from the cache
+        throw new IOException("Downloaded content does not match its hash: " + revisionKey);
+      }
+
+      String name = getContentName(actualHash);
+      File file = new File(myDir, name);
+      synchronized (this) {
+        Content content = myContents.get(name);
+        if (content == null || !file.exists()) {
+          Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+          if (content != null) {
+            removeContent(content, false);
+          }
+          content = new Content(name, file.length());
+          myContents.put(name, content);
+          myTotalSize += content.mySize;
+        }
+        addRevision(content, revisionKey);
+        evict(content);
+        // contents missing from the index are deleted on the next start, so losing the last batch on a crash only loses cached data
+        if (++myUnsavedContents >= INDEX_SAVE_BATCH) {
+          saveIndexIfModified();
+        }
+      }
+      return file;
+    }
+    finally {
+      FileUtil.delete(tempFile);
+    }
+  }
+
+  private TFSContentStore touch(Content content, String revisionKey) {
+    myContents.get(content.myName);
+    myIndexModified = true;
+    return new CachedStore(revisionKey, null, new File(myDir, content.myName));
+  }
+
+  private void addRevision(Content content, String revisionKey) {
+    Content previous = myRevisions.put(revisionKey, content);
+    if (previous != null && previous != content) {
+      previous.myRevisionKeys.remove(revisionKey);
+    }
+    content.myRevisionKeys.add(revisionKey);
+    myIndexModified = true;
+  }
+
+  private void evict(Content justAdded) {
+    Iterator<Content> iterator = myContents.values().iterator();
+    while (myTotalSize > myMaxSize && iterator.hasNext()) {
+      Content content = iterator.next();
+      if (content != justAdded) {
+        iterator.remove();
+        removeContent(content, true);
+      }
+    }
+  }
+
+  private void removeContent(Content content, boolean deleteFile) {
+    myTotalSize -= content.mySize;
+    for (String revisionKey : content.myRevisionKeys) {
+      myRevisions.remove(revisionKey);
+    }
+    if (deleteFile) {
+      FileUtil.delete(new File(myDir, content.myName));
+    }
+    myIndexModified = true;
+  }
+
+  private synchronized void loadIndex() {
+    File indexFile = new File(myDir, INDEX_FILE_NAME);
+    if (indexFile.exists()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+        if (in.readInt() == INDEX_VERSION) {
+          int contentsCount = in.readInt();
+          // least recently used go first
+          for (int i = 0; i < contentsCount; i++) {
+            String name = in.readUTF();
+            int revisionsCount = in.readInt();
+            File file = new File(myDir, name);
+            Content content = file.isFile() ? new Content(name, file.length()) : null;
+            for (int j = 0; j < revisionsCount; j++) {
+              String revisionKey = in.readUTF();
+              if (content != null) {
+                content.myRevisionKeys.add(revisionKey);
+                myRevisions.put(revisionKey, content);
+              }
+            }
+            if (content != null) {
+              myContents.put(name, content);
+              myTotalSize += content.mySize;
+            }
+          }
+        }
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read content cache index", e);
+        myContents.clear();
+        myRevisions.clear();
+        myTotalSize = 0;
+      }
+    }
+
+    // remove contents unknown to the index, as well as temporary files
+    File[] files = myDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!INDEX_FILE_NAME.equals(file.getName()) && !myContents.containsKey(file.getName())) {
+          FileUtil.delete(file);
+        }
+      }
+    }
+  }
+
+  synchronized void saveIndexIfModified() {
+    if (!myIndexModified) {
+      return;
+    }
+    try {
+      FileUtil.createDirectory(myDir);
+      File tempFile = FileUtil.createTempFile(myDir, INDEX_FILE_NAME, TEMP_FILE_SUFFIX, true, false);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(INDEX_VERSION);
+        out.writeInt(myContents.size());
+        for (Content content : myContents.values()) {
+          out.writeUTF(content.myName);
+          out.writeInt(content.myRevisionKeys.size());
+          for (String revisionKey : content.myRevisionKeys) {
+            out.writeUTF(revisionKey);
+          }
+        }
+      }
+      Files.move(tempFile.toPath(), new File(myDir, INDEX_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      myIndexModified = false;
+      myUnsavedContents = 0;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save content cache index", e);
+    }
+  }
+
+  private static String getRevisionKey(String serverUri, int itemId, int revision) {
+    return serverUri + "|" + itemId + "|" + revision;
+  }
+
+  private static String getContentName(byte[] hash) {
+    return StringUtil.toHexString(hash);
+  }
+}
@@ -17,11 +17,11 @@
 package org.jetbrains.tfsIntegration.core.revision;
 
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.ByteBackedContentRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.reference.SoftReference;
 import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.DeletedState;
 import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.Item;
 import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.ItemType;
@@ -35,19 +35,26 @@ import org.jetbrains.tfsIntegration.core.tfs.version.ChangesetVersionSpec;
 import org.jetbrains.tfsIntegration.exceptions.OperationFailedException;
 import org.jetbrains.tfsIntegration.exceptions.TfsException;
 
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
 import java.text.MessageFormat;
 import java.util.Collection;
 
 public abstract class TFSContentRevision implements ByteBackedContentRevision {
 
+  private interface StoreReader<T> {
+    T read(TFSContentStore store) throws TfsException, IOException;
+  }
+
   private final Project myProject;
 
   private final ServerInfo myServer;
 
+  // content is kept in memory until it is reclaimed, then it is read again from the store
   @Nullable
-  private byte[] myContent;
+  private SoftReference<byte[]> myContent;
+
+  @Nullable
+  private TFSContentStore myStore;
 
   protected TFSContentRevision(final Project project, final ServerInfo server) {
     myProject = project;
@@ -151,7 +158,13 @@ public abstract class TFSContentRevision implements ByteBackedContentRevision {
       throw new OperationFailedException("Cannot find mapping for item " + localPath.getPresentableUrl());
     }
 
-    final WorkspaceInfo workspace = workspaces.iterator().next();
+    return create(project, workspaces.iterator().next(), localPath, changeset);
+  }
+
+  public static TFSContentRevision create(final Project project,
+                                          final @NotNull WorkspaceInfo workspace,
+                                          final @NotNull FilePath localPath,
+                                          final int changeset) {
     return new TFSContentRevision(project, workspace.getServer()) {
       private @Nullable Item myItem;
 
@@ -201,26 +214,93 @@ public abstract class TFSContentRevision implements ByteBackedContentRevision {
   @Nullable
   @Override
   public byte[] getContentAsBytes() throws VcsException {
-    if (myContent == null) {
+    byte[] content = SoftReference.dereference(myContent);
+    if (content == null) {
+      content = readStore(TFSContentStore::loadContent);
+      myContent = content != null ? new SoftReference<>(content) : null;
+    }
+    return content;
+  }
+
+  /**
+   * @return stream of the content, that is read from the content store if the content is not in memory; to be closed by the caller
+   */
+  @Nullable
+  public InputStream getContentAsStream() throws VcsException {
+    byte[] content = SoftReference.dereference(myContent);
+    if (content != null) {
+      return new ByteArrayInputStream(content);
+    }
+    return readStore(TFSContentStore::openContent);
+  }
+
+  /**
+   * @return MD5 hash of the content, calculated without loading the content in memory
+   */
+  @Nullable
+  public byte[] getContentHash() throws VcsException {
+    InputStream stream = getContentAsStream();
+    if (stream == null) {
+      return null;
+    }
+    try {
       try {
-        myContent = loadContent();
+        return TfsFileUtil.calculateMD5(stream);
+      }
+      finally {
+        stream.close();
+      }
+    }
+    catch (IOException e) {
+      throw new VcsException(e);
+    }
+  }
+
+  @Nullable
+  private <T> T readStore(StoreReader<T> reader) throws VcsException {
+    try {
+      TFSContentStore store = getStore();
+      if (store == null) {
+        return null;
       }
-      catch (TfsException e) {
-        throw new VcsException(e);
+      try {
+        return reader.read(store);
       }
-      catch (IOException e) {
-        throw new VcsException(e);
+      catch (FileNotFoundException e) {
+        // content has been evicted from the cache since it was found there
+        store = reloadStore(store);
+        return store != null ? reader.read(store) : null;
       }
     }
-    return myContent;
+    catch (TfsException | IOException e) {
+      throw new VcsException(e);
+    }
+  }
+
+  @Nullable
+  private synchronized TFSContentStore getStore() throws TfsException, IOException {
+    if (myStore == null) {
+      myStore = findOrDownloadContent();
+    }
+    return myStore;
+  }
+
+  @Nullable
+  private synchronized TFSContentStore reloadStore(TFSContentStore evictedStore) throws TfsException, IOException {
+    // another thread may have reloaded it already
+    if (myStore == evictedStore) {
+      myStore = null;
+    }
+    return getStore();
   }
 
   @Nullable
-  private byte[] loadContent() throws TfsException, IOException {
+  private TFSContentStore findOrDownloadContent() throws TfsException, IOException {
     int itemId = getItemId();
     int changeset = getChangeset();
 
-    TFSContentStore store = TFSContentStoreFactory.find(myServer.getUri().toASCIIString(), itemId, changeset);
+    String serverUri = myServer.getUri().toASCIIString();
+    TFSContentStore store = TFSContentStoreFactory.find(serverUri, itemId, changeset);
     if (store == null) {
       Item item = getItem();
       if (item == null) {
@@ -231,27 +311,22 @@ public abstract class TFSContentRevision implements ByteBackedContentRevision {
         throw new OperationFailedException(message);
       }
 
+      // the same content may have been downloaded for another item or revision
+      byte[] hash = TfsUtil.getHash(item.getHash());
+      store = TFSContentStoreFactory.find(serverUri, itemId, changeset, hash);
+      if (store != null) {
+        return store;
+      }
+
       final String downloadUrl = item.getDurl();
       TFSVcs.assertTrue(downloadUrl != null, "Item without download URL: " + item.getItem());
 
-      store = TFSContentStoreFactory.create(myServer.getUri().toASCIIString(), itemId, changeset);
-      final Ref<TfsException> exception = new Ref<>();
-      store.saveContent(new TfsFileUtil.ContentWriter() {
-        @Override
-        public void write(final OutputStream outputStream) {
-          try {
-            myServer.getVCS().downloadItem(myProject, downloadUrl, outputStream, TFSBundle.message("downloading.0", getFile().getName()));
-          }
-          catch (TfsException e) {
-            exception.set(e);
-          }
-        }
-      });
-      if (!exception.isNull()) {
-        throw exception.get();
-      }
+      store = TFSContentStoreFactory.create(serverUri, itemId, changeset, hash);
+      final String progressTitle = TFSBundle.message("downloading.0", getFile().getName());
+      store.saveContent(outputStream -> myServer.getVCS()
+        .downloadItem(myProject, downloadUrl, new TfsFileUtil.CancellableOutputStream(outputStream), progressTitle));
     }
-    return store.loadContent();
+    return store;
   }
 
   @NonNls
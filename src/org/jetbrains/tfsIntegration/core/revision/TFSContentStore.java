@@ -21,6 +21,7 @@ import org.jetbrains.tfsIntegration.core.tfs.TfsFileUtil;
 import org.jetbrains.tfsIntegration.exceptions.TfsException;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 public interface TFSContentStore {
 
@@ -28,4 +29,10 @@ public interface TFSContentStore {
 
   @NotNull
   byte[] loadContent() throws TfsException, IOException;
+
+  /**
+   * @return stream that reads saved content without loading it in memory, to be closed by the caller
+   */
+  @NotNull
+  InputStream openContent() throws TfsException, IOException;
 }
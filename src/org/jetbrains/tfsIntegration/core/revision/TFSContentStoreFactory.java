@@ -23,12 +23,31 @@ import java.io.IOException;
 public class TFSContentStoreFactory {
 
   public static TFSContentStore create(final String serverUri, final int itemId, final int revision) throws IOException {
-    return new TFSTmpFileStore(serverUri, itemId, revision);
+    return create(serverUri, itemId, revision, null);
+  }
+
+  /**
+   * @param hash content hash provided by the server, if known
+   */
+  public static TFSContentStore create(final String serverUri, final int itemId, final int revision, @Nullable byte[] hash)
+    throws IOException {
+    TFSContentCache cache = TFSContentCache.getInstance();
+    return cache != null ? cache.create(serverUri, itemId, revision, hash) : new TFSTmpFileStore(serverUri, itemId, revision);
   }
 
   @Nullable
   public static TFSContentStore find(final String serverUri, final int itemId, final int revision) throws IOException {
-    return TFSTmpFileStore.find(serverUri, itemId, revision);
+    TFSContentCache cache = TFSContentCache.getInstance();
+    return cache != null ? cache.find(serverUri, itemId, revision) : TFSTmpFileStore.find(serverUri, itemId, revision);
   }
-}
 
+  /**
+   * Finds the content of the revision, or the same content saved for another item or revision
+   */
+  @Nullable
+  public static TFSContentStore find(final String serverUri, final int itemId, final int revision, @Nullable byte[] hash)
+    throws IOException {
+    TFSContentCache cache = TFSContentCache.getInstance();
+    return cache != null ? cache.find(serverUri, itemId, revision, hash) : TFSTmpFileStore.find(serverUri, itemId, revision);
+  }
+}
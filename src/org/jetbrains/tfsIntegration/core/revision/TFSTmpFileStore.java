@@ -17,17 +17,13 @@
 package org.jetbrains.tfsIntegration.core.revision;
 
 import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.openapi.util.io.StreamUtil;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.core.tfs.TfsFileUtil;
 import org.jetbrains.tfsIntegration.exceptions.TfsException;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 
 public class TFSTmpFileStore implements TFSContentStore {
   @NonNls private static final String TMP_FILE_NAME = "idea_tfs";
@@ -70,21 +66,28 @@ public class TFSTmpFileStore implements TFSContentStore {
 
   @Override
   public void saveContent(TfsFileUtil.ContentWriter contentWriter) throws TfsException, IOException {
-    TfsFileUtil.setFileContent(myTmpFile, contentWriter);
-  }
-
-  @NotNull
-  @Override
-  public byte[] loadContent() throws IOException {
-    InputStream fileStream = null;
+    boolean saved = false;
     try {
-      fileStream = new FileInputStream(myTmpFile);
-      return StreamUtil.loadFromStream(fileStream);
+      TfsFileUtil.setFileContent(myTmpFile, contentWriter);
+      saved = true;
     }
     finally {
-      if (fileStream != null) {
-        fileStream.close();
+      if (!saved) {
+        // don't let incomplete content be found later
+        FileUtil.delete(myTmpFile);
       }
     }
   }
+
+  @NotNull
+  @Override
+  public byte[] loadContent() throws IOException {
+    return FileUtil.loadFileBytes(myTmpFile);
+  }
+
+  @NotNull
+  @Override
+  public InputStream openContent() throws IOException {
+    return new BufferedInputStream(new FileInputStream(myTmpFile));
+  }
 }
@@ -21,9 +21,10 @@ import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.util.diff.Diff;
 import com.intellij.util.diff.FilesTooBigForDiffException;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.core.TFSFileRevision;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -37,9 +38,10 @@ public class AnnotationBuilder {
   private final VcsFileRevision[] myLineRevisions;
 
   // index of the stored record is the line number in the old revision of the file (which changes while we analyse different revisions),
-  // stored Integer is the corresponding line number in the revision which is being annotated. It is in range [0..myLineRevisions.size() - 1]
-  // and may be null if this line in old file does not appear in annotated file.
-  private final List<Integer> myLineNumbers;
+  // stored value is the corresponding line number in the revision which is being annotated. It is in range [0..myLineRevisions.length - 1]
+  // and is -1 if this line in old file does not appear in annotated file.
+  private int[] myLineNumbers;
+  private int myNotAnnotatedLinesCount;
 
   /**
    * @param revisions       sorted list containing revisions of the annotated file.
@@ -49,6 +51,15 @@ public class AnnotationBuilder {
    *                        is called only for specified {@code revisions}
    */
   public AnnotationBuilder(List<TFSFileRevision> revisions, ContentProvider contentProvider) throws VcsException {
+    this(revisions, contentProvider, null);
+  }
+
+  /**
+   * @param baseLineRevisions annotation of the last (oldest) of {@code revisions} computed before, or null to annotate the lines
+   *                          not changed in any of {@code revisions} with the oldest one
+   */
+  public AnnotationBuilder(List<TFSFileRevision> revisions, ContentProvider contentProvider, @Nullable VcsFileRevision[] baseLineRevisions)
+    throws VcsException {
     if (revisions == null || revisions.size() < 1) {
       throw new IllegalArgumentException();
     }
@@ -59,10 +70,11 @@ public class AnnotationBuilder {
     String[] lines = splitLines(myAnnotatedContent);
 
     myLineRevisions = new VcsFileRevision[lines.length];
-    myLineNumbers = new ArrayList<>(lines.length);
+    myLineNumbers = new int[lines.length];
     for (int i = 0; i < lines.length; i++) {
-      myLineNumbers.add(i);
+      myLineNumbers[i] = i;
     }
+    myNotAnnotatedLinesCount = lines.length;
 
     while (iterator.hasNext()) {
       final TFSFileRevision previousRevision = iterator.next();
@@ -76,7 +88,7 @@ public class AnnotationBuilder {
         throw new VcsException(e);
       }
 
-      annotateAll(change, revision);
+      annotateAll(change, revision, previousLines.length);
       if (allLinesAnnotated()) {
         break;
       }
@@ -84,58 +96,69 @@ public class AnnotationBuilder {
       revision = previousRevision;
     }
 
+    if (baseLineRevisions != null && !allLinesAnnotated()) {
+      fillFromBase(baseLineRevisions);
+    }
     fillAllNotAnnotated(revisions.get(revisions.size() - 1));
   }
 
-  private void annotateAll(final Diff.Change changesList, final VcsFileRevision revision) {
+  private void annotateAll(final Diff.Change changesList, final VcsFileRevision revision, int previousLinesCount) {
     Diff.Change change = changesList;
     while (change != null) {
       annotate(change, revision);
       change = change.link;
     }
-    recalculateLineNumbers(changesList);
+    recalculateLineNumbers(changesList, previousLinesCount);
   }
 
   private void annotate(final Diff.Change change, VcsFileRevision revision) {
-    if (change.inserted > 0) {
-      for (int line = change.line1; line < change.line1 + change.inserted; line++) {
-        Integer origLine = myLineNumbers.get(line);
-        if (origLine != null) {
-          if (myLineRevisions[origLine.intValue()] == null) {
-            myLineRevisions[origLine.intValue()] = revision;
-          }
-        }
+    for (int line = change.line1; line < change.line1 + change.inserted; line++) {
+      int origLine = myLineNumbers[line];
+      if (origLine != -1 && myLineRevisions[origLine] == null) {
+        myLineRevisions[origLine] = revision;
+        myNotAnnotatedLinesCount--;
       }
     }
   }
 
-  private void recalculateLineNumbers(final Diff.Change changesList) {
+  private void recalculateLineNumbers(final Diff.Change changesList, int previousLinesCount) {
+    // changes are sorted, so line numbers of the previous revision are filled in one pass:
+    // unchanged lines keep their mapping, deleted lines don't appear in annotated file, inserted lines are dropped
+    final int[] previousLineNumbers = new int[previousLinesCount];
+    int previousLine = 0;
+    int line = 0;
     Diff.Change change = changesList;
-    int removedLinesCount = 0;
-    while (change != null) {
-      for (int i = 0; i < change.inserted; i++) {
-        myLineNumbers.remove(change.line1 - removedLinesCount);
-      }
-      removedLinesCount += change.inserted;
-      change = change.link;
-    }
-
-    change = changesList;
     while (change != null) {
-      for (int i = 0; i < change.deleted; i++) {
-        myLineNumbers.add(change.line0, null);
-      }
+      int unchangedCount = change.line0 - previousLine;
+      System.arraycopy(myLineNumbers, line, previousLineNumbers, previousLine, unchangedCount);
+      previousLine += unchangedCount;
+      line += unchangedCount;
+
+      Arrays.fill(previousLineNumbers, previousLine, previousLine + change.deleted, -1);
+      previousLine += change.deleted;
+      line += change.inserted;
       change = change.link;
     }
+    System.arraycopy(myLineNumbers, line, previousLineNumbers, previousLine, previousLinesCount - previousLine);
+    myLineNumbers = previousLineNumbers;
   }
 
   private boolean allLinesAnnotated() {
-    for (VcsFileRevision revision : myLineRevisions) {
-      if (revision == null) {
-        return false;
+    return myNotAnnotatedLinesCount == 0;
+  }
+
+  // line numbers are those of the oldest revision at this point, unless all the lines got annotated before
+  private void fillFromBase(final VcsFileRevision[] baseLineRevisions) {
+    if (baseLineRevisions.length != myLineNumbers.length) {
+      return;
+    }
+    for (int line = 0; line < myLineNumbers.length; line++) {
+      int origLine = myLineNumbers[line];
+      if (origLine != -1 && myLineRevisions[origLine] == null) {
+        myLineRevisions[origLine] = baseLineRevisions[line];
+        myNotAnnotatedLinesCount--;
       }
     }
-    return true;
   }
 
   private void fillAllNotAnnotated(final VcsFileRevision vcsFileRevision) {
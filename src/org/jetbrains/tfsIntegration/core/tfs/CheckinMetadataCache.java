@@ -0,0 +1,122 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs;
+
+import com.intellij.openapi.util.Pair;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.Annotation;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.CheckinNoteFieldDefinition;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check in note definitions and annotations (check in policies and their overrides) of a server, queried every time
+ * check in is prepared. They rarely change, so they are reused until they expire or are modified through this server.
+ */
+class CheckinMetadataCache {
+  // 0 turns the cache off
+  private static final long TTL_MS =
+    TimeUnit.SECONDS.toMillis(Long.getLong("org.jetbrains.tfsIntegration.checkinMetadataTtlSeconds", 300));
+
+  private static class Entry<T> {
+    private final T myValue;
+    private final long myExpirationTime;
+
+    private Entry(T value) {
+      myValue = value;
+      myExpirationTime = System.currentTimeMillis() + TTL_MS;
+    }
+  }
+
+  private final Map<String, Entry<List<CheckinNoteFieldDefinition>>> myNoteDefinitions = new HashMap<>();
+  private final Map<Pair<String, String>, Entry<Collection<Annotation>>> myAnnotations = new HashMap<>();
+
+  /**
+   * @return null if definitions of the team project are not cached
+   */
+  @Nullable
+  synchronized List<CheckinNoteFieldDefinition> getNoteDefinitions(@NotNull String teamProject) {
+    return getValue(myNoteDefinitions, teamProject);
+  }
+
+  /**
+   * @param definitions definitions of all the team projects queried together
+   */
+  synchronized void putNoteDefinitions(@NotNull Collection<String> teamProjects, @NotNull List<CheckinNoteFieldDefinition> definitions) {
+    if (TTL_MS <= 0) {
+      return;
+    }
+    Map<String, List<CheckinNoteFieldDefinition>> projectToDefinitions = new HashMap<>();
+    for (String teamProject : teamProjects) {
+      projectToDefinitions.put(teamProject, new ArrayList<>());
+    }
+    for (CheckinNoteFieldDefinition definition : definitions) {
+      String teamProject = findTeamProject(teamProjects, definition.getAi());
+      if (teamProject == null) {
+        // can't tell which team project the definition belongs to, so don't cache any
+        return;
+      }
+      projectToDefinitions.get(teamProject).add(definition);
+    }
+    for (Map.Entry<String, List<CheckinNoteFieldDefinition>> e : projectToDefinitions.entrySet()) {
+      myNoteDefinitions.put(e.getKey(), new Entry<>(Collections.unmodifiableList(e.getValue())));
+    }
+  }
+
+  /**
+   * @return null if annotations of the item are not cached
+   */
+  @Nullable
+  synchronized Collection<Annotation> getAnnotations(@NotNull String annotationName, @NotNull String serverItem) {
+    return getValue(myAnnotations, Pair.create(annotationName, serverItem));
+  }
+
+  synchronized void putAnnotations(@NotNull String annotationName, @NotNull String serverItem, @NotNull Collection<Annotation> annotations) {
+    if (TTL_MS > 0) {
+      myAnnotations.put(Pair.create(annotationName, serverItem), new Entry<>(Collections.unmodifiableCollection(annotations)));
+    }
+  }
+
+  synchronized void invalidateAnnotations(@NotNull String annotationName, @NotNull String serverItem) {
+    myAnnotations.remove(Pair.create(annotationName, serverItem));
+  }
+
+  @Nullable
+  private static <K, T> T getValue(Map<K, Entry<T>> map, K key) {
+    Entry<T> entry = map.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.myExpirationTime < System.currentTimeMillis()) {
+      map.remove(key);
+      return null;
+    }
+    return entry.myValue;
+  }
+
+  @Nullable
+  private static String findTeamProject(Collection<String> teamProjects, @Nullable String associatedItem) {
+    for (String teamProject : teamProjects) {
+      if (teamProject.equalsIgnoreCase(associatedItem)) {
+        return teamProject;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs;
+
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.ExtendedItem;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.PendingChange;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Pending changes and extended items reported by server, indexed by their local paths.
+ * Extended items are taken out of the index once matched, pending changes stay there.
+ *
+ * @see VersionControlPath#getLocalPathKey(String)
+ */
+public class LocalItemsIndex {
+
+  private final Map<Integer, PendingChange> myPendingChanges;
+  private final Map<Integer, ExtendedItem> myExtendedItems;
+  private final Map<String, PendingChange> myPendingChangesByLocalPath;
+  private final Map<String, List<ExtendedItem>> myExtendedItemsByLocalPath;
+
+  public LocalItemsIndex(@NotNull Collection<PendingChange> pendingChanges, @NotNull Collection<ExtendedItem> extendedItems) {
+    myPendingChanges = new HashMap<>(pendingChanges.size());
+    for (PendingChange pendingChange : pendingChanges) {
+      myPendingChanges.put(pendingChange.getItemid(), pendingChange);
+    }
+
+    myExtendedItems = new HashMap<>(extendedItems.size());
+    for (ExtendedItem extendedItem : extendedItems) {
+      myExtendedItems.put(extendedItem.getItemid(), extendedItem);
+    }
+
+    myPendingChangesByLocalPath = new HashMap<>(myPendingChanges.size());
+    for (PendingChange pendingChange : myPendingChanges.values()) {
+      if (pendingChange.getLocal() != null) {
+        myPendingChangesByLocalPath.putIfAbsent(getKey(pendingChange.getLocal()), pendingChange);
+      }
+    }
+
+    myExtendedItemsByLocalPath = new HashMap<>(myExtendedItems.size());
+    for (ExtendedItem extendedItem : myExtendedItems.values()) {
+      if (extendedItem.getLocal() != null) {
+        myExtendedItemsByLocalPath.computeIfAbsent(getKey(extendedItem.getLocal()), k -> new ArrayList<>(1)).add(extendedItem);
+      }
+    }
+  }
+
+  @Nullable
+  public PendingChange getPendingChange(int itemId) {
+    return myPendingChanges.get(itemId);
+  }
+
+  @Nullable
+  public PendingChange findPendingChange(@NotNull String localPathKey) {
+    return myPendingChangesByLocalPath.get(localPathKey);
+  }
+
+  @Nullable
+  public ExtendedItem takeExtendedItem(int itemId) {
+    return myExtendedItems.remove(itemId);
+  }
+
+  /**
+   * @return extended item with given local path that was not taken yet
+   */
+  @Nullable
+  public ExtendedItem takeExtendedItem(@NotNull String localPathKey) {
+    List<ExtendedItem> candidates = myExtendedItemsByLocalPath.get(localPathKey);
+    if (candidates != null) {
+      for (ExtendedItem candidate : candidates) {
+        if (myExtendedItems.remove(candidate.getItemid()) != null) {
+          return candidate;
+        }
+      }
+    }
+    return null;
+  }
+
+  public Collection<ExtendedItem> getRemainingExtendedItems() {
+    return myExtendedItems.values();
+  }
+
+  private static String getKey(@NotNull String tfsLocalPath) {
+    //noinspection ConstantConditions
+    return VersionControlPath.getLocalPathKey(VersionControlPath.localPathFromTfsRepresentation(tfsLocalPath));
+  }
+}
@@ -117,6 +117,13 @@ public class ServerInfo {
     return myServer;
   }
 
+  /**
+   * Releases resources held to talk to the server, called once the server is removed
+   */
+  public void dispose() {
+    myBeans.dispose();
+  }
+
   public void refreshWorkspacesForCurrentOwnerAndComputer(Object projectOrComponent, boolean force) throws TfsException {
     Workspace[] newWorkspaces = getVCS().queryWorkspaces(Workstation.getComputerName(), projectOrComponent, force);
     String owner = getQualifiedUsername();
@@ -30,7 +30,6 @@ import org.jetbrains.tfsIntegration.core.TFSProgressUtil;
 import org.jetbrains.tfsIntegration.core.TFSVcs;
 import org.jetbrains.tfsIntegration.exceptions.TfsException;
 
-import java.io.File;
 import java.util.*;
 
 // Note: if item is renamed (moved), same local item and pending change reported by server for source and target names
@@ -59,15 +58,7 @@ public class StatusProvider {
       .getExtendedItemsAndPendingChanges(workspace.getName(), workspace.getOwnerName(), itemSpecs, ItemType.Any, projectOrComponent,
                                          TFSBundle.message("loading.changes"));
 
-    Map<Integer, PendingChange> pendingChanges = new HashMap<>(extendedItemsAndPendingChanges.pendingChanges.size());
-    for (PendingChange pendingChange : extendedItemsAndPendingChanges.pendingChanges) {
-      pendingChanges.put(pendingChange.getItemid(), pendingChange);
-    }
-
-    Map<Integer, ExtendedItem> extendedItems = new HashMap<>();
-    for (ExtendedItem extendedItem : extendedItemsAndPendingChanges.extendedItems) {
-      extendedItems.put(extendedItem.getItemid(), extendedItem);
-    }
+    LocalItemsIndex index = new LocalItemsIndex(extendedItemsAndPendingChanges.pendingChanges, extendedItemsAndPendingChanges.extendedItems);
 
     TFSProgressUtil.checkCanceled(progress);
 
@@ -81,29 +72,18 @@ public class StatusProvider {
       // first process all local items given
       for (FilePath localItem : localItems) {
 
+        String localItemKey = VersionControlPath.getLocalPathKey(localItem);
         ExtendedItem extendedItem = null;
-        PendingChange pendingChange = null;
-
-        // TODO: what is faster: to search throughout pending changes or extended items?
-
-        for (PendingChange candidate : pendingChanges.values()) {
-          if (equals(localItem, VersionControlPath.localPathFromTfsRepresentation(candidate.getLocal()))) {
-            extendedItem = extendedItems.remove(candidate.getItemid());
-            //TFSVcs.assertTrue(extendedItem != null, "pending change without extended item for " +
-            //                                        VersionControlPath.localPathFromTfsRepresentation(candidate.getLocal()));
-            // don't assert: if there's no item, we will get 'unversioned' status as a result
-            pendingChange = candidate;
-            break;
-          }
+        PendingChange pendingChange = index.findPendingChange(localItemKey);
+        if (pendingChange != null) {
+          extendedItem = index.takeExtendedItem(pendingChange.getItemid());
+          //TFSVcs.assertTrue(extendedItem != null, "pending change without extended item for " +
+          //                                        VersionControlPath.localPathFromTfsRepresentation(pendingChange.getLocal()));
+          // don't assert: if there's no item, we will get 'unversioned' status as a result
         }
 
         if (extendedItem == null) {
-          for (ExtendedItem candidate : extendedItems.values()) {
-            if (equals(localItem, VersionControlPath.localPathFromTfsRepresentation(candidate.getLocal()))) {
-              extendedItem = extendedItems.remove(candidate.getItemid());
-              break;
-            }
-          }
+          extendedItem = index.takeExtendedItem(localItemKey);
         }
 
         final boolean localItemExists = TfsFileUtil.localItemExists(localItem);
@@ -118,8 +98,8 @@ public class StatusProvider {
 
     if (recursive) {
       // then care about locally deleted
-      for (ExtendedItem extendedItem : extendedItems.values()) {
-        PendingChange pendingChange = pendingChanges.get(extendedItem.getItemid());
+      for (ExtendedItem extendedItem : index.getRemainingExtendedItems()) {
+        PendingChange pendingChange = index.getPendingChange(extendedItem.getItemid());
         if (pendingChange != null || extendedItem.getLocal() != null) {
           FilePath localPath = VersionControlPath.getFilePath(pendingChange != null ? pendingChange.getLocal() : extendedItem.getLocal(),
                                                               extendedItem.getType() == ItemType.Folder);
@@ -236,13 +216,4 @@ public class StatusProvider {
                      (item.getLocal() != null ? VersionControlPath.localPathFromTfsRepresentation(item.getLocal()) : item.getTitem()));
     return null;
   }
-
-  private static boolean equals(FilePath path1, String path2) {
-    if (path2 == null) {
-      return path1 == null;
-    }
-    // compare regarding file system case sensitivity
-    return path1.getIOFile().equals(new File(path2));
-  }
-
 }
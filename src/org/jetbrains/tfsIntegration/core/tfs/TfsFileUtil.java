@@ -17,6 +17,7 @@
 package org.jetbrains.tfsIntegration.core.tfs;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vcs.FilePath;
@@ -46,6 +47,27 @@ public class TfsFileUtil {
     void write(OutputStream outputStream) throws TfsException;
   }
 
+  /**
+   * Checks for cancellation as the content is written, so that a cancelled download doesn't wait for the whole transfer
+   */
+  public static class CancellableOutputStream extends FilterOutputStream {
+    public CancellableOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      ProgressManager.checkCanceled();
+      out.write(b);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+      ProgressManager.checkCanceled();
+      out.write(b, off, len);
+    }
+  }
+
   public static List<FilePath> getFilePaths(@NotNull final VirtualFile[] files) {
     return getFilePaths(Arrays.asList(files));
   }
@@ -245,16 +267,10 @@ public class TfsFileUtil {
   }
 
   public static byte[] calculateMD5(File file) throws IOException {
-    final MessageDigest digest = DigestUtil.md5();
     InputStream is = null;
     try {
       is = new BufferedInputStream(new FileInputStream(file));
-      byte[] buffer = new byte[8192];
-      int read;
-      while ((read = is.read(buffer)) > 0) {
-        digest.update(buffer, 0, read);
-      }
-      return digest.digest();
+      return calculateMD5(is);
     }
     finally {
       if (is != null) {
@@ -267,4 +283,14 @@ public class TfsFileUtil {
       }
     }
   }
+
+  public static byte[] calculateMD5(InputStream is) throws IOException {
+    final MessageDigest digest = DigestUtil.md5();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = is.read(buffer)) > 0) {
+      digest.update(buffer, 0, read);
+    }
+    return digest.digest();
+  }
 }
@@ -21,6 +21,7 @@ import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.ClassLoaderUtil;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.StreamUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
@@ -38,6 +39,9 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.core.revision.TFSContentRevision;
 import org.jetbrains.tfsIntegration.exceptions.TfsException;
 
+import javax.activation.DataHandler;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
@@ -228,4 +232,21 @@ public class TfsUtil {
 
     return result;
   }
+
+  /**
+   * @return MD5 hash provided by the server or null if the server does not know it
+   */
+  @Nullable
+  public static byte[] getHash(@Nullable DataHandler hash) {
+    if (hash == null) {
+      return null;
+    }
+    try (InputStream stream = hash.getInputStream()) {
+      byte[] result = StreamUtil.loadFromStream(stream);
+      return result.length > 0 ? result : null;
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
 }
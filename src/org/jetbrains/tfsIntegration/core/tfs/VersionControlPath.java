@@ -78,6 +78,20 @@ public class VersionControlPath {
     return new File(localPathFromTfsRepresentation(localPath));
   }
 
+  /**
+   * @return key that is the same for local paths of the same file, with regard to file system case sensitivity
+   */
+  @NotNull
+  public static String getLocalPathKey(@NotNull String localPath) {
+    String path = StringUtil.trimEnd(FileUtil.toSystemIndependentName(localPath), "/");
+    return SystemInfo.isFileSystemCaseSensitive ? path : StringUtil.toLowerCase(path);
+  }
+
+  @NotNull
+  public static String getLocalPathKey(@NotNull FilePath localPath) {
+    return getLocalPathKey(localPath.getPath());
+  }
+
   public static String getPathToProject(final String serverPath) {
     int secondSlashPos = serverPath.indexOf("/", ROOT_FOLDER.length());
     return secondSlashPos == -1 ? serverPath : serverPath.substring(0, secondSlashPos);
@@ -19,14 +19,19 @@ package org.jetbrains.tfsIntegration.core.tfs;
 import com.intellij.openapi.application.ApplicationNamesInfo;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.util.ArrayUtilRt;
+import com.intellij.util.Consumer;
 import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.DigestUtil;
 import com.microsoft.schemas.teamfoundation._2005._06.services.authorization._03.Identity;
 import com.microsoft.schemas.teamfoundation._2005._06.services.authorization._03.QueryMembership;
 import com.microsoft.schemas.teamfoundation._2005._06.services.authorization._03.SearchFactor;
@@ -36,14 +41,13 @@ import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservi
 import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.MergeOptions;
 import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.*;
 import com.microsoft.schemas.teamfoundation._2005._06.workitemtracking.clientservices._03.*;
-import org.apache.commons.httpclient.methods.multipart.FilePart;
-import org.apache.commons.httpclient.methods.multipart.Part;
-import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.commons.httpclient.methods.multipart.*;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.core.TFSBundle;
 import org.jetbrains.tfsIntegration.core.TFSConstants;
+import org.jetbrains.tfsIntegration.core.TFSProgressUtil;
 import org.jetbrains.tfsIntegration.core.TFSVcs;
 import org.jetbrains.tfsIntegration.core.TfsBeansHolder;
 import org.jetbrains.tfsIntegration.core.configuration.Credentials;
@@ -59,12 +63,11 @@ import org.jetbrains.tfsIntegration.exceptions.TfsException;
 import org.jetbrains.tfsIntegration.webservice.TfsRequestManager;
 import org.jetbrains.tfsIntegration.webservice.WebServiceHelper;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.URI;
 import java.rmi.RemoteException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class VersionControlServer {
   @NonNls public static final String WORKSPACE_NAME_FIELD = "wsname";
@@ -79,11 +82,28 @@ public class VersionControlServer {
   public static final int LOCAL_CONFLICT_REASON_TARGET = 3;
 
   private static final int ITEMS_IN_GROUP = Integer.getInteger("org.jetbrains.tfsIntegration.requestGroupSize", 200);
+  // send groups of a batched operation concurrently, as many at a time as TfsRequestManager allows
+  private static final boolean PARALLEL_GROUPS = Boolean.getBoolean("org.jetbrains.tfsIntegration.parallelRequestGroups");
+  // number of files uploaded simultaneously on check in, 1 means files are uploaded one by one
+  private static final int PARALLEL_UPLOADS = Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.parallelUploads", 4));
+  // number of changesets queried simultaneously, 1 means changesets are queried one by one
+  private static final int PARALLEL_CHANGESET_QUERIES =
+    Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.parallelChangesetQueries", 4));
+  // number of check in policy annotations queried simultaneously, 1 means they are queried one by one
+  private static final int PARALLEL_ANNOTATION_QUERIES =
+    Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.parallelAnnotationQueries", 4));
+  // number of conflicts resolved simultaneously, 1 means they are resolved one by one
+  private static final int PARALLEL_RESOLVES = Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.parallelResolves", 4));
+  // files larger than this are uploaded in several ranges, so that a failure only causes the failed range to be sent again
+  private static final int UPLOAD_CHUNK_SIZE =
+    Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.uploadChunkSize", 8 * 1024 * 1024));
+  private static final int UPLOAD_RANGE_ATTEMPTS = Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.uploadRangeAttempts", 3));
 
   private final URI myServerUri;
   private final String myInstanceId;
 
   @NotNull private final TfsBeansHolder myBeans;
+  private final CheckinMetadataCache myCheckinMetadataCache = new CheckinMetadataCache();
   private static final Logger LOG = Logger.getInstance(VersionControlServer.class.getName());
 
   private interface OperationOnCollection<T, U> {
@@ -124,19 +144,35 @@ public class VersionControlServer {
       return operation.merge(Collections.emptyList());
     }
 
+    final List<List<T>> groups = new ArrayList<>();
+    TfsUtil.consumeInParts(items, ITEMS_IN_GROUP, groups::add);
+    if (PARALLEL_GROUPS) {
+      List<ThrowableComputable<U, TfsException>> tasks = new ArrayList<>(groups.size());
+      for (final List<T> group : groups) {
+        tasks.add(() -> executeGroup(operation, projectOrComponent, group, progressTitle));
+      }
+      return operation.merge(TfsRequestManager.invokeAll(tasks));
+    }
+
     final Collection<U> results = new ArrayList<>();
-    TfsUtil.consumeInParts(items, ITEMS_IN_GROUP, ts -> {
-      U result = TfsRequestManager.executeRequest(myServerUri, projectOrComponent, new TfsRequestManager.Request<U>(progressTitle) {
-        @Override
-        public U execute(Credentials credentials, URI serverUri, @Nullable ProgressIndicator pi) throws Exception {
-          return operation.execute(ts, credentials, pi);
-        }
-      });
-      results.add(result);
-    });
+    for (List<T> group : groups) {
+      results.add(executeGroup(operation, projectOrComponent, group, progressTitle));
+    }
     return operation.merge(results);
   }
 
+  private <T, U> U executeGroup(final OperationOnList<T, U> operation,
+                                final Object projectOrComponent,
+                                final List<T> group,
+                                final String progressTitle) throws TfsException {
+    return TfsRequestManager.executeRequest(myServerUri, projectOrComponent, new TfsRequestManager.Request<U>(progressTitle) {
+      @Override
+      public U execute(Credentials credentials, URI serverUri, @Nullable ProgressIndicator pi) throws Exception {
+        return operation.execute(group, credentials, pi);
+      }
+    });
+  }
+
   public VersionControlServer(URI uri, @NotNull TfsBeansHolder beans, String instanceId) {
     myServerUri = uri;
     myBeans = beans;
@@ -165,7 +201,7 @@ public class VersionControlServer {
     return itemSpec;
   }
 
-  private List<Item> queryItemsById(final int[] itemIds,
+  public List<Item> queryItemsById(final int[] itemIds,
                                     final int changeSet,
                                     final boolean generateDownloadUrl,
                                     Object projectOrComponent,
@@ -766,10 +802,34 @@ public class VersionControlServer {
                                       final VersionSpec versionTo,
                                       int maxCount,
                                       Object projectOrComponent, String progressTitle) throws TfsException {
+    List<Changeset> allChangeSets = new ArrayList<>();
+    queryHistory(workspaceName, workspaceOwner, itemSpec, user, itemVersion, versionFrom, versionTo, maxCount, projectOrComponent,
+                 progressTitle, allChangeSets::add);
+    return allChangeSets;
+  }
+
+  /**
+   * Queries history by pages, changesets of each page are passed to the consumer as soon as the page is received.
+   * No more pages are requested once {@code maxCount} changesets are received.
+   *
+   * @param maxCount max number of changesets to receive, 0 means no limit
+   * @return number of changesets passed to the consumer
+   */
+  public int queryHistory(final String workspaceName,
+                          final String workspaceOwner,
+                          final ItemSpec itemSpec,
+                          final String user,
+                          final VersionSpec itemVersion,
+                          final VersionSpec versionFrom,
+                          final VersionSpec versionTo,
+                          int maxCount,
+                          Object projectOrComponent,
+                          String progressTitle,
+                          @NotNull Consumer<? super Changeset> consumer) throws TfsException {
     // TODO: slot mode
     // TODO: include allChangeSets
 
-    List<Changeset> allChangeSets = new ArrayList<>();
+    int received = 0;
     int total = maxCount > 0 ? maxCount : Integer.MAX_VALUE;
     final Ref<VersionSpec> versionToCurrent = new Ref<>(versionTo);
 
@@ -797,10 +857,12 @@ public class VersionControlServer {
         });
 
       if (currentChangeSets != null) {
-        ContainerUtil.addAll(allChangeSets, currentChangeSets);
+        for (Changeset changeset : currentChangeSets) {
+          consumer.consume(changeset);
+        }
+        received += currentChangeSets.length;
       }
 
-
       if (currentChangeSets == null || currentChangeSets.length < batchMax) {
         break;
       }
@@ -809,7 +871,7 @@ public class VersionControlServer {
       Changeset lastChangeSet = currentChangeSets[currentChangeSets.length - 1];
       versionToCurrent.set(new ChangesetVersionSpec(lastChangeSet.getCset()));
     }
-    return allChangeSets;
+    return received;
   }
 
   public Workspace[] queryWorkspaces(final String computer, Object projectOrComponent, boolean force) throws TfsException {
@@ -1077,9 +1139,120 @@ public class VersionControlServer {
     });
   }
 
+  /**
+   * Resolves the conflicts concurrently (but not more than {@link #PARALLEL_RESOLVES} at a time), see {@link TfsRequestManager#invokeAll}
+   *
+   * @return responses in the order of params
+   */
+  public List<ResolveResponse> resolveConflicts(final String workspaceName,
+                                                final String workspaceOwnerName,
+                                                final List<ResolveConflictParams> params,
+                                                final Object projectOrComponent,
+                                                final String progressTitle) throws TfsException {
+    List<ThrowableComputable<ResolveResponse, TfsException>> tasks = new ArrayList<>(params.size());
+    for (final ResolveConflictParams p : params) {
+      tasks.add(() -> resolveConflict(workspaceName, workspaceOwnerName, p, projectOrComponent, progressTitle));
+    }
+    return TfsRequestManager.invokeAll(tasks, PARALLEL_RESOLVES);
+  }
+
+
+  /**
+   * Uploads the files concurrently (but not more than {@link #PARALLEL_UPLOADS} at a time), see {@link TfsRequestManager#invokeAll}.
+   * The first failed upload cancels the rest, as well as cancellation of the current progress does.
+   * Files with the same content as the server already has for their pending changes are not uploaded.
+   *
+   * @return total size of the files not uploaded
+   */
+  public long uploadItems(final WorkspaceInfo workspaceInfo, final List<PendingChange> changes, final Object projectOrComponent)
+    throws TfsException {
+    final ProgressIndicator pi = ProgressManager.getInstance().getProgressIndicator();
+    final Map<PendingChange, byte[]> localHashes = calculateLocalHashes(changes);
+    final List<PendingChange> toUpload = new ArrayList<>(changes.size());
+    long savedBytes = 0;
+    for (PendingChange change : changes) {
+      byte[] localHash = localHashes.get(change);
+      if (localHash != null && Arrays.equals(localHash, getServerContentHash(change))) {
+        savedBytes += VersionControlPath.getFile(change.getLocal()).length();
+      }
+      else {
+        toUpload.add(change);
+      }
+    }
+    final AtomicInteger uploaded = new AtomicInteger();
+    List<ThrowableComputable<Void, TfsException>> tasks = new ArrayList<>(toUpload.size());
+    for (final PendingChange change : toUpload) {
+      tasks.add(() -> {
+        TFSProgressUtil.setProgressText2(pi, VersionControlPath.localPathFromTfsRepresentation(change.getLocal()));
+        uploadItem(workspaceInfo, change, localHashes.get(change), projectOrComponent, null);
+        TFSProgressUtil
+          .setProgressText(pi, TFSBundle.message("uploading.files.0.of.1", uploaded.incrementAndGet(), toUpload.size()));
+        return null;
+      });
+    }
+    TfsRequestManager.invokeAll(tasks, PARALLEL_UPLOADS);
+    TFSProgressUtil.setProgressText2(pi, "");
+    return savedBytes;
+  }
+
+  /**
+   * Hashes local files of the changes which content is known to the server, as many at a time as files are uploaded
+   *
+   * @return hashes by change, files that can't be read are missing
+   */
+  private static Map<PendingChange, byte[]> calculateLocalHashes(List<PendingChange> changes) throws TfsException {
+    final List<PendingChange> toHash = new ArrayList<>(changes.size());
+    for (PendingChange change : changes) {
+      if (getServerContentHash(change) != null) {
+        toHash.add(change);
+      }
+    }
+
+    List<ThrowableComputable<byte[], TfsException>> tasks = new ArrayList<>(toHash.size());
+    for (final PendingChange change : toHash) {
+      tasks.add(() -> {
+        try {
+          return TfsFileUtil.calculateMD5(VersionControlPath.getFile(change.getLocal()));
+        }
+        catch (IOException e) {
+          // let the upload report the problem
+          return null;
+        }
+      });
+    }
+    List<byte[]> hashes = TfsRequestManager.invokeAll(tasks, PARALLEL_UPLOADS);
+
+    Map<PendingChange, byte[]> result = new HashMap<>(toHash.size());
+    for (int i = 0; i < toHash.size(); i++) {
+      if (hashes.get(i) != null) {
+        result.put(toHash.get(i), hashes.get(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return hash of the content uploaded for the change before or, if none was, of its base version
+   */
+  @Nullable
+  private static byte[] getServerContentHash(PendingChange change) {
+    byte[] uploadedHash = TfsUtil.getHash(change.getUhash());
+    return uploadedHash != null ? uploadedHash : TfsUtil.getHash(change.getHash());
+  }
 
   public void uploadItem(final WorkspaceInfo workspaceInfo, final PendingChange change, Object projectOrComponent, String progressTitle)
-    throws TfsException, IOException {
+    throws TfsException {
+    uploadItem(workspaceInfo, change, null, projectOrComponent, progressTitle);
+  }
+
+  /**
+   * @param localHash hash of the file calculated before, if any
+   */
+  private void uploadItem(final WorkspaceInfo workspaceInfo,
+                          final PendingChange change,
+                          @Nullable final byte[] localHash,
+                          Object projectOrComponent,
+                          String progressTitle) throws TfsException {
     TfsRequestManager.executeRequest(myServerUri, projectOrComponent, new TfsRequestManager.Request<Void>(progressTitle) {
       @Override
       public Void execute(Credentials credentials, URI serverUri, @Nullable ProgressIndicator pi) throws Exception {
@@ -1087,24 +1260,135 @@ public class VersionControlServer {
         File file = VersionControlPath.getFile(change.getLocal());
         long fileLength = file.length();
 
-        ArrayList<Part> parts = new ArrayList<>();
-        parts.add(new StringPart(SERVER_ITEM_FIELD, change.getItem(), "UTF-8"));
-        parts.add(new StringPart(WORKSPACE_NAME_FIELD, workspaceInfo.getName()));
-        parts.add(new StringPart(WORKSPACE_OWNER_FIELD, workspaceInfo.getOwnerName()));
-        parts.add(new StringPart(LENGTH_FIELD, Long.toString(fileLength)));
-        final byte[] hash = TfsFileUtil.calculateMD5(file);
-        parts.add(new StringPart(HASH_FIELD, Base64.getEncoder().encodeToString(hash)));
-        // TODO: handle files too large to fit in a single POST
-        parts.add(new StringPart(RANGE_FIELD, String.format("bytes=0-%d/%d", fileLength - 1, fileLength)));
-        FilePart filePart = new FilePart(CONTENT_FIELD, SERVER_ITEM_FIELD, file);
-        parts.add(filePart);
-        filePart.setCharSet(null);
-        WebServiceHelper
-          .httpPost(uploadUrl, parts.toArray(new Part[0]), null, credentials, serverUri, myBeans.getUploadDownloadClient(false));
+        byte[] content = null;
+        final byte[] hash;
+        if (fileLength <= UPLOAD_CHUNK_SIZE) {
+          // file fits in a single range, so read it once both to hash and to send it
+          content = FileUtil.loadFileBytes(file);
+          fileLength = content.length;
+          hash = DigestUtil.md5().digest(content);
+        }
+        else {
+          // every range is sent along with the hash of the whole file
+          hash = localHash != null ? localHash : TfsFileUtil.calculateMD5(file);
+        }
+
+        long offset = 0;
+        do {
+          if (pi != null) {
+            pi.checkCanceled();
+          }
+          long length = Math.min(UPLOAD_CHUNK_SIZE, fileLength - offset);
+          PartSource partSource =
+            content != null ? new ByteArrayPartSource(SERVER_ITEM_FIELD, content) : new FileRangePartSource(file, offset, length);
+          uploadRange(uploadUrl, workspaceInfo, change.getItem(), hash, offset, length, fileLength, partSource, credentials, serverUri, pi);
+          offset += length;
+        }
+        while (offset < fileLength);
         return null;
       }
     });
+  }
 
+  private void uploadRange(@NotNull String uploadUrl,
+                           @NotNull WorkspaceInfo workspaceInfo,
+                           @NotNull String serverItem,
+                           byte[] hash,
+                           long offset,
+                           long length,
+                           long fileLength,
+                           @NotNull PartSource partSource,
+                           Credentials credentials,
+                           URI serverUri,
+                           @Nullable ProgressIndicator pi) throws IOException, TfsException {
+    for (int attempt = 1; ; attempt++) {
+      ArrayList<Part> parts = new ArrayList<>();
+      parts.add(new StringPart(SERVER_ITEM_FIELD, serverItem, "UTF-8"));
+      parts.add(new StringPart(WORKSPACE_NAME_FIELD, workspaceInfo.getName()));
+      parts.add(new StringPart(WORKSPACE_OWNER_FIELD, workspaceInfo.getOwnerName()));
+      parts.add(new StringPart(LENGTH_FIELD, Long.toString(fileLength)));
+      parts.add(new StringPart(HASH_FIELD, Base64.getEncoder().encodeToString(hash)));
+      parts.add(new StringPart(RANGE_FIELD, String.format("bytes=%d-%d/%d", offset, offset + length - 1, fileLength)));
+      FilePart filePart = new FilePart(CONTENT_FIELD, partSource);
+      parts.add(filePart);
+      filePart.setCharSet(null);
+      try {
+        WebServiceHelper
+          .httpPost(uploadUrl, parts.toArray(new Part[0]), null, credentials, serverUri, myBeans.getUploadDownloadClient(false));
+        return;
+      }
+      catch (IOException e) {
+        // ranges sent before are kept by the server, so only this one needs to be sent again
+        if (attempt >= UPLOAD_RANGE_ATTEMPTS) {
+          throw e;
+        }
+        LOG.info("Failed to upload range " + offset + "-" + (offset + length - 1) + " of " + serverItem + ", retrying", e);
+        if (pi != null) {
+          pi.checkCanceled();
+        }
+      }
+    }
+  }
+
+  private static class FileRangePartSource implements PartSource {
+    private final File myFile;
+    private final long myOffset;
+    private final long myLength;
+
+    FileRangePartSource(@NotNull File file, long offset, long length) {
+      myFile = file;
+      myOffset = offset;
+      myLength = length;
+    }
+
+    @Override
+    public long getLength() {
+      return myLength;
+    }
+
+    @Override
+    public String getFileName() {
+      return SERVER_ITEM_FIELD;
+    }
+
+    @Override
+    public InputStream createInputStream() throws IOException {
+      FileInputStream stream = new FileInputStream(myFile);
+      try {
+        stream.getChannel().position(myOffset);
+      }
+      catch (IOException e) {
+        stream.close();
+        throw e;
+      }
+      return new FilterInputStream(stream) {
+        private long myRemaining = myLength;
+
+        @Override
+        public int read() throws IOException {
+          if (myRemaining <= 0) {
+            return -1;
+          }
+          int result = super.read();
+          if (result != -1) {
+            myRemaining--;
+          }
+          return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          if (myRemaining <= 0) {
+            return -1;
+          }
+          int result = super.read(b, off, (int)Math.min(len, myRemaining));
+          if (result > 0) {
+            myRemaining -= result;
+          }
+          return result;
+        }
+      };
+    }
   }
 
   public Collection<PendingChange> queryPendingSetsByLocalPaths(final String workspaceName,
@@ -1301,30 +1585,56 @@ public class VersionControlServer {
   }
 
   /**
+   * Definitions queried less than a while ago are taken from the cache
+   *
    * @return sorted accorging to 'do' attribute
    */
   public List<CheckinNoteFieldDefinition> queryCheckinNoteDefinition(final Collection<String> teamProjects,
                                                                      Object projectOrComponent,
                                                                      String progressTitle) throws TfsException {
-    final ArrayOfCheckinNoteFieldDefinition result =
+    List<CheckinNoteFieldDefinition> result = new ArrayList<>();
+    final List<String> notCachedProjects = new ArrayList<>();
+    for (String teamProject : teamProjects) {
+      List<CheckinNoteFieldDefinition> cached = myCheckinMetadataCache.getNoteDefinitions(teamProject);
+      if (cached != null) {
+        result.addAll(cached);
+      }
+      else {
+        notCachedProjects.add(teamProject);
+      }
+    }
+    if (notCachedProjects.isEmpty()) {
+      result.sort(Comparator.comparingInt(CheckinNoteFieldDefinition::get_do));
+      return result;
+    }
+
+    final ArrayOfCheckinNoteFieldDefinition arrayOfDefinitions =
       TfsRequestManager
         .executeRequest(myServerUri, projectOrComponent, new TfsRequestManager.Request<ArrayOfCheckinNoteFieldDefinition>(progressTitle) {
           @Override
           public ArrayOfCheckinNoteFieldDefinition execute(Credentials credentials, URI serverUri, @Nullable ProgressIndicator pi)
             throws Exception {
             QueryCheckinNoteDefinition param = new QueryCheckinNoteDefinition();
-            param.setAssociatedServerItem(TfsUtil.toArrayOfString(teamProjects));
+            param.setAssociatedServerItem(TfsUtil.toArrayOfString(notCachedProjects));
             return myBeans.getRepositoryStub(credentials, pi).queryCheckinNoteDefinition(param).getQueryCheckinNoteDefinitionResult();
           }
         });
 
-    final CheckinNoteFieldDefinition[] definitions = result.getCheckinNoteFieldDefinition();
-    if (definitions == null) {
-      return Collections.emptyList();
+    final CheckinNoteFieldDefinition[] definitions = arrayOfDefinitions.getCheckinNoteFieldDefinition();
+    List<CheckinNoteFieldDefinition> loaded =
+      definitions != null ? Arrays.asList(definitions) : Collections.emptyList();
+    myCheckinMetadataCache.putNoteDefinitions(notCachedProjects, loaded);
+    if (result.isEmpty()) {
+      return loaded;
     }
-    return Arrays.asList(definitions);
+    result.addAll(loaded);
+    result.sort(Comparator.comparingInt(CheckinNoteFieldDefinition::get_do));
+    return result;
   }
 
+  /**
+   * Always queries the server, the annotations are then reused by {@link #queryAnnotations(Collection, Collection, Object, String)}
+   */
   public Collection<Annotation> queryAnnotations(final String annotationName,
                                                  final String serverItem,
                                                  Object projectOrComponent,
@@ -1341,16 +1651,49 @@ public class VersionControlServer {
           return myBeans.getRepositoryStub(credentials, pi).queryAnnotation(param).getQueryAnnotationResult();
         }
       });
-    if (arrayOfAnnotation == null || arrayOfAnnotation.getAnnotation() == null) {
-      return Collections.emptyList();
-    }
 
     Collection<Annotation> result = new ArrayList<>();
-    for (Annotation annotation : arrayOfAnnotation.getAnnotation()) {
-      if (annotationName.equals(annotation.getName())) {
-        result.add(annotation);
+    if (arrayOfAnnotation != null && arrayOfAnnotation.getAnnotation() != null) {
+      for (Annotation annotation : arrayOfAnnotation.getAnnotation()) {
+        if (annotationName.equals(annotation.getName())) {
+          result.add(annotation);
+        }
+      }
+    }
+    myCheckinMetadataCache.putAnnotations(annotationName, serverItem, result);
+    return result;
+  }
+
+  /**
+   * Annotations queried less than a while ago are taken from the cache, the rest are queried concurrently
+   *
+   * @return annotations of the items by annotation name
+   */
+  public Map<String, Collection<Annotation>> queryAnnotations(final Collection<String> annotationNames,
+                                                              final Collection<String> serverItems,
+                                                              final Object projectOrComponent,
+                                                              final String progressTitle) throws TfsException {
+    Map<String, Collection<Annotation>> result = new HashMap<>();
+    List<String> notCachedNames = new ArrayList<>();
+    List<ThrowableComputable<Collection<Annotation>, TfsException>> tasks = new ArrayList<>();
+    for (final String annotationName : annotationNames) {
+      result.put(annotationName, new ArrayList<>());
+      for (final String serverItem : serverItems) {
+        Collection<Annotation> cached = myCheckinMetadataCache.getAnnotations(annotationName, serverItem);
+        if (cached != null) {
+          result.get(annotationName).addAll(cached);
+        }
+        else {
+          notCachedNames.add(annotationName);
+          tasks.add(() -> queryAnnotations(annotationName, serverItem, projectOrComponent, progressTitle, false));
+        }
       }
     }
+
+    List<Collection<Annotation>> loaded = TfsRequestManager.invokeAll(tasks, PARALLEL_ANNOTATION_QUERIES);
+    for (int i = 0; i < loaded.size(); i++) {
+      result.get(notCachedNames.get(i)).addAll(loaded.get(i));
+    }
     return result;
   }
 
@@ -1372,6 +1715,7 @@ public class VersionControlServer {
         return null;
       }
     });
+    myCheckinMetadataCache.invalidateAnnotations(annotationName, serverItem);
   }
 
   public void deleteAnnotation(final String serverItem, final String annotationName, Object projectOrComponent, String progressTitle)
@@ -1387,6 +1731,7 @@ public class VersionControlServer {
         return null;
       }
     });
+    myCheckinMetadataCache.invalidateAnnotations(annotationName, serverItem);
   }
 
   @Nullable
@@ -1474,6 +1819,18 @@ public class VersionControlServer {
     });
   }
 
+  /**
+   * @return changesets with their changes, in the order of ids
+   */
+  public List<Changeset> queryChangesets(final List<Integer> changesetIds, final Object projectOrComponent, final String progressTitle)
+    throws TfsException {
+    List<ThrowableComputable<Changeset, TfsException>> tasks = new ArrayList<>(changesetIds.size());
+    for (final int changesetId : changesetIds) {
+      tasks.add(() -> queryChangeset(changesetId, projectOrComponent, progressTitle));
+    }
+    return TfsRequestManager.invokeAll(tasks, PARALLEL_CHANGESET_QUERIES);
+  }
+
   public List<VersionControlLabel> queryLabels(final String labelName,
                                                final String labelScope,
                                                final String owner,
@@ -21,6 +21,8 @@ import com.intellij.openapi.vcs.FilePath;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class WorkingFolderInfo {
 
   public enum Status {
@@ -28,6 +30,9 @@ public class WorkingFolderInfo {
     Cloaked
   }
 
+  // changed on modification of any working folder or workspace mappings, lets path indices detect they are outdated
+  private static final AtomicInteger ourModificationStamp = new AtomicInteger();
+
   private @NotNull FilePath myLocalPath;
   private @NotNull String myServerPath;
   private @NotNull Status myStatus;
@@ -59,14 +64,25 @@ public class WorkingFolderInfo {
 
   public void setStatus(final @NotNull Status status) {
     myStatus = status;
+    ourModificationStamp.incrementAndGet();
   }
 
   public void setServerPath(final @NotNull String serverPath) {
     myServerPath = serverPath;
+    ourModificationStamp.incrementAndGet();
   }
 
   public void setLocalPath(final @NotNull FilePath localPath) {
     myLocalPath = localPath;
+    ourModificationStamp.incrementAndGet();
+  }
+
+  static int getModificationStamp() {
+    return ourModificationStamp.get();
+  }
+
+  static void mappingsChanged() {
+    ourModificationStamp.incrementAndGet();
   }
 
   public WorkingFolderInfo getCopy() {
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.FilePath;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Working folders (both active and cloaked) arranged in trees of path segments, for local and server paths.
+ * Lookups cost about the depth of the path looked up instead of the number of working folders.
+ */
+class WorkingFoldersIndex {
+
+  private static class Node {
+    private final Map<String, Node> myChildren = new HashMap<>(2);
+    // working folders mapped exactly to this node, in the order of the workspace working folders
+    private final List<WorkingFolderInfo> myWorkingFolders = new ArrayList<>(1);
+    private int mySubtreeSize;
+
+    @Nullable
+    private WorkingFolderInfo getLastWithServerPath() {
+      for (int i = myWorkingFolders.size() - 1; i >= 0; i--) {
+        if (!StringUtil.isEmpty(myWorkingFolders.get(i).getServerPath())) {
+          return myWorkingFolders.get(i);
+        }
+      }
+      return null;
+    }
+
+    private void collectSubtree(Collection<? super WorkingFolderInfo> result) {
+      result.addAll(myWorkingFolders);
+      for (Node child : myChildren.values()) {
+        child.collectSubtree(result);
+      }
+    }
+  }
+
+  private final Node myLocalRoot = new Node();
+  private final Node myServerRoot = new Node();
+  private final Map<WorkingFolderInfo, Integer> myOrder = new IdentityHashMap<>();
+  private final int myModificationStamp;
+
+  WorkingFoldersIndex(@NotNull List<WorkingFolderInfo> workingFolders) {
+    myModificationStamp = WorkingFolderInfo.getModificationStamp();
+    for (WorkingFolderInfo workingFolder : workingFolders) {
+      myOrder.put(workingFolder, myOrder.size());
+      add(myLocalRoot, getLocalSegments(workingFolder.getLocalPath()), workingFolder);
+      if (!StringUtil.isEmpty(workingFolder.getServerPath())) {
+        add(myServerRoot, getServerSegments(workingFolder.getServerPath()), workingFolder);
+      }
+    }
+  }
+
+  /**
+   * @return false if any of working folders was modified since the index has been built
+   */
+  boolean isUpToDate() {
+    return myModificationStamp == WorkingFolderInfo.getModificationStamp();
+  }
+
+  /**
+   * @return the deepest working folder with server path that contains given local path (or is equal to it)
+   */
+  @Nullable
+  WorkingFolderInfo findNearestParentMapping(@NotNull FilePath localPath) {
+    WorkingFolderInfo result = null;
+    Node node = myLocalRoot;
+    for (String segment : getLocalSegments(localPath)) {
+      node = node.myChildren.get(segment);
+      if (node == null) {
+        break;
+      }
+      WorkingFolderInfo candidate = node.getLastWithServerPath();
+      if (candidate != null) {
+        result = candidate;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the deepest working folder with server path that contains given server path (or is equal to it)
+   */
+  @Nullable
+  WorkingFolderInfo findNearestParentMapping(@NotNull String serverPath) {
+    WorkingFolderInfo result = null;
+    Node node = myServerRoot;
+    for (String segment : getServerSegments(serverPath)) {
+      node = node.myChildren.get(segment);
+      if (node == null) {
+        break;
+      }
+      WorkingFolderInfo candidate = node.getLastWithServerPath();
+      if (candidate != null) {
+        result = candidate;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if given local path is under one of working folders or, if {@code considerChildMappings},
+   *         one of working folders is under given local path
+   */
+  boolean hasMapping(@NotNull FilePath localPath, boolean considerChildMappings) {
+    Node node = myLocalRoot;
+    for (String segment : getLocalSegments(localPath)) {
+      node = node.myChildren.get(segment);
+      if (node == null) {
+        return false;
+      }
+      if (!node.myWorkingFolders.isEmpty()) {
+        return true;
+      }
+    }
+    return considerChildMappings && node.mySubtreeSize > 0;
+  }
+
+  /**
+   * @return working folders located under given local path (or equal to it), in the order of the workspace working folders
+   */
+  @NotNull
+  List<WorkingFolderInfo> findChildMappings(@NotNull FilePath localPath) {
+    Node node = myLocalRoot;
+    for (String segment : getLocalSegments(localPath)) {
+      node = node.myChildren.get(segment);
+      if (node == null) {
+        return Collections.emptyList();
+      }
+    }
+    List<WorkingFolderInfo> result = new ArrayList<>(node.mySubtreeSize);
+    node.collectSubtree(result);
+    result.sort(Comparator.comparingInt(myOrder::get));
+    return result;
+  }
+
+  private static void add(Node root, String[] segments, WorkingFolderInfo workingFolder) {
+    Node node = root;
+    node.mySubtreeSize++;
+    for (String segment : segments) {
+      node = node.myChildren.computeIfAbsent(segment, s -> new Node());
+      node.mySubtreeSize++;
+    }
+    node.myWorkingFolders.add(workingFolder);
+  }
+
+  private static String[] getLocalSegments(@NotNull FilePath localPath) {
+    return VersionControlPath.getLocalPathKey(localPath).split("/");
+  }
+
+  private static String[] getServerSegments(@NotNull String serverPath) {
+    // server paths are compared case insensitive, see VersionControlPath.isUnder()
+    return VersionControlPath.getPathComponents(StringUtil.toLowerCase(serverPath));
+  }
+}
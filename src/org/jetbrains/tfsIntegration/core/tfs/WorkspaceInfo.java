@@ -51,6 +51,8 @@ public class WorkspaceInfo {
   private int myOptions;
 
   private List<WorkingFolderInfo> myWorkingFoldersInfos = new ArrayList<>();
+  // built on demand, reset when the set of working folders changes
+  private volatile WorkingFoldersIndex myWorkingFoldersIndex;
 
   public WorkspaceInfo(final @NotNull ServerInfo serverInfo, final @NotNull String owner, final @NotNull String computer) {
     myServerInfo = serverInfo;
@@ -177,13 +179,29 @@ public class WorkspaceInfo {
     myLoaded = true;
   }
 
+  @NotNull
+  private WorkingFoldersIndex getWorkingFoldersIndex() {
+    WorkingFoldersIndex index = myWorkingFoldersIndex;
+    if (index == null || !index.isUpToDate()) {
+      index = new WorkingFoldersIndex(myWorkingFoldersInfos);
+      myWorkingFoldersIndex = index;
+    }
+    return index;
+  }
+
+  private void workingFoldersChanged() {
+    myWorkingFoldersIndex = null;
+    WorkingFolderInfo.mappingsChanged();
+  }
+
   boolean hasMappingCached(FilePath localPath, boolean considerChildMappings) {
-    return hasMapping(getWorkingFoldersCached(), localPath, considerChildMappings);
+    return hasMapping(getWorkingFoldersIndex(), localPath, considerChildMappings);
   }
 
   boolean hasMapping(FilePath localPath, boolean considerChildMappings, Object projectOrComponent) throws TfsException {
-    // post-check current owner since it might have just been changed dirung getWorkingFolders() call
-    return hasMapping(getWorkingFolders(projectOrComponent), localPath, considerChildMappings) && hasCurrentOwnerAndComputer();
+    loadFromServer(projectOrComponent, false);
+    // post-check current owner since it might have just been changed dirung loadFromServer() call
+    return hasMapping(getWorkingFoldersIndex(), localPath, considerChildMappings) && hasCurrentOwnerAndComputer();
   }
 
   boolean hasCurrentOwnerAndComputer() {
@@ -220,10 +238,8 @@ public class WorkspaceInfo {
 
     if (considerChildMappings) {
       Collection<String> childMappings = new ArrayList<>();
-      for (WorkingFolderInfo workingFolder : getWorkingFolders(projectOrComponent)) {
-        if (workingFolder.getLocalPath().isUnder(localPathOnLocalFileSystem, false)) {
-          childMappings.add(workingFolder.getServerPath());
-        }
+      for (WorkingFolderInfo workingFolder : getWorkingFoldersIndex().findChildMappings(localPathOnLocalFileSystem)) {
+        childMappings.add(workingFolder.getServerPath());
       }
       return childMappings;
     }
@@ -235,7 +251,7 @@ public class WorkspaceInfo {
   @Nullable
   public FilePath findLocalPathByServerPath(final @NotNull String serverPath, final boolean isDirectory,
                                             Object projectOrComponent) throws TfsException {
-    final WorkingFolderInfo parentMapping = findNearestParentMapping(serverPath, isDirectory, projectOrComponent);
+    final WorkingFolderInfo parentMapping = findNearestParentMapping(serverPath, projectOrComponent);
     return parentMapping != null ? parentMapping.getLocalPathByServerPath(serverPath, isDirectory) : null;
   }
 
@@ -247,32 +263,19 @@ public class WorkspaceInfo {
 
   @Nullable
   private WorkingFolderInfo findNearestParentMapping(final @NotNull FilePath localPath, Object projectOrComponent) throws TfsException {
-    WorkingFolderInfo mapping = null;
-    for (WorkingFolderInfo folderInfo : getWorkingFolders(projectOrComponent)) {
-      if (folderInfo.getServerPathByLocalPath(localPath) != null &&
-          (mapping == null || folderInfo.getLocalPath().isUnder(mapping.getLocalPath(), false))) {
-        mapping = folderInfo;
-      }
-    }
-    return mapping;
+    loadFromServer(projectOrComponent, false);
+    return getWorkingFoldersIndex().findNearestParentMapping(localPath);
   }
 
   @Nullable
-  private WorkingFolderInfo findNearestParentMapping(final @NotNull String serverPath, boolean isDirectory, Object projectOrComponent)
-    throws TfsException {
-    WorkingFolderInfo mapping = null;
-    for (WorkingFolderInfo folderInfo : getWorkingFolders(projectOrComponent)) {
-      if (folderInfo.getLocalPathByServerPath(serverPath, isDirectory) != null &&
-          (mapping == null || VersionControlPath.isUnder(mapping.getServerPath(), folderInfo.getServerPath()))) {
-        mapping = folderInfo;
-      }
-    }
-    return mapping;
+  private WorkingFolderInfo findNearestParentMapping(final @NotNull String serverPath, Object projectOrComponent) throws TfsException {
+    loadFromServer(projectOrComponent, false);
+    return getWorkingFoldersIndex().findNearestParentMapping(serverPath);
   }
 
-
   public void addWorkingFolderInfo(final WorkingFolderInfo workingFolderInfo) {
     myWorkingFoldersInfos.add(workingFolderInfo);
+    workingFoldersChanged();
   }
 
   public void addOwnerAlias(@NotNull String alias) {
@@ -282,12 +285,14 @@ public class WorkspaceInfo {
   public void removeWorkingFolderInfo(final WorkingFolderInfo folderInfo) {
     checkCurrentOwnerAndComputer();
     myWorkingFoldersInfos.remove(folderInfo);
+    workingFoldersChanged();
   }
 
   public void setWorkingFolders(final List<WorkingFolderInfo> workingFolders) {
     checkCurrentOwnerAndComputer();
     myWorkingFoldersInfos.clear();
     myWorkingFoldersInfos.addAll(workingFolders);
+    workingFoldersChanged();
   }
 
   public void saveToServer(Object projectOrComponent, WorkspaceInfo originalWorkspace) throws TfsException {
@@ -378,6 +383,7 @@ public class WorkspaceInfo {
       }
     }
     workspace.myWorkingFoldersInfos = workingFoldersInfos;
+    workspace.workingFoldersChanged();
   }
 
   public WorkspaceInfo getCopy() {
@@ -424,15 +430,9 @@ public class WorkspaceInfo {
     return true;
   }
 
-  private static boolean hasMapping(Collection<WorkingFolderInfo> mappings, FilePath localPath, boolean considerChildMappings) {
+  private static boolean hasMapping(WorkingFoldersIndex index, FilePath localPath, boolean considerChildMappings) {
     final FilePath localPathOnLocalFileSystem = VcsUtil.getFilePath(localPath.getPath(), localPath.isDirectory());
-    for (WorkingFolderInfo mapping : mappings) {
-      if (localPathOnLocalFileSystem.isUnder(mapping.getLocalPath(), false) ||
-          (considerChildMappings && mapping.getLocalPath().isUnder(localPathOnLocalFileSystem, false))) {
-        return true;
-      }
-    }
-    return false;
+    return index.hasMapping(localPathOnLocalFileSystem, considerChildMappings);
   }
 
   @SuppressWarnings({"HardCodedStringLiteral"})
@@ -18,6 +18,7 @@ package org.jetbrains.tfsIntegration.core.tfs;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.ShutDownTracker;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.util.Function;
@@ -59,14 +60,31 @@ public class Workstation {
 
   private static final Logger LOG = Logger.getInstance(Workstation.class.getName());
 
+  // Keep the cache in binary journal updated incrementally. The journal is then the source of truth: it is read on start instead of
+  // the XML cache, unless the XML cache is written after the journal (by another TFS client, or while the journal was turned off).
+  // The XML cache is written when the journal is compacted and on exit, so other clients see changes made here with a delay.
+  private static final boolean USE_BINARY_CACHE = Boolean.getBoolean("org.jetbrains.tfsIntegration.binaryWorkstationCache");
+
   @NotNull private final List<ServerInfo> myServerInfos;
 
+  private final @Nullable WorkstationCacheJournal myCacheJournal;
+  // changes are appended to the journal but not written to the XML cache yet
+  private boolean myXmlCacheOutdated;
+
   private @Nullable Ref<FilePath> myDuplicateMappedPath;
 
+  private volatile @Nullable WorkstationMappingsIndex myMappingsIndex;
+
   private static String ourComputerName;
 
   private Workstation() {
-    myServerInfos = loadCache();
+    Path journalFile = USE_BINARY_CACHE ? getCacheJournalFile() : null;
+    myCacheJournal = journalFile != null ? new WorkstationCacheJournal(journalFile) : null;
+    List<ServerInfo> servers = myCacheJournal != null && !isCacheJournalOutdated(myCacheJournal) ? myCacheJournal.load() : null;
+    myServerInfos = servers != null ? servers : loadCache();
+    if (myCacheJournal != null) {
+      ShutDownTracker.getInstance().registerShutdownTask(this::exportOutdatedCache);
+    }
   }
 
   private static class WorkstationHolder {
@@ -135,45 +153,52 @@ public class Workstation {
     return (Files.exists(cacheFile) || !existingOnly) ? cacheFile : null;
   }
 
-  void update() {
+  @Nullable
+  private static Path getCacheJournalFile() {
+    Path cacheFile = getCacheFile(false);
+    return cacheFile != null ? cacheFile.resolveSibling(cacheFile.getFileName() + ".bin") : null;
+  }
+
+  private static boolean isCacheJournalOutdated(@NotNull WorkstationCacheJournal journal) {
+    Path cacheFile = getCacheFile(true);
+    try {
+      if (cacheFile != null && journal.isOlderThan(cacheFile)) {
+        // the journal is rewritten from the XML cache on the next update
+        LOG.info("Workspace cache is newer than its binary journal, ignoring the journal");
+        return true;
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot check workspace cache journal", e);
+    }
+    return false;
+  }
+
+  synchronized void update() {
     invalidateDuplicateMappedPath();
+    myMappingsIndex = null;
 
     Path cacheFile = getCacheFile(false);
     if (cacheFile != null) {
       try {
-        Element serversElement = new Element(SERVERS);
-
-        for (ServerInfo serverInfo : getServers()) {
-          Element serverInfoElement = new Element(SERVER_INFO)
-            .setAttribute(URI_ATTR, serverInfo.getUri().toString())
-            .setAttribute(GUID_ATTR, serverInfo.getGuid());
-
-          serversElement.addContent(serverInfoElement);
-
-          for (WorkspaceInfo workspaceInfo : serverInfo.getWorkspaces()) {
-            Element workspaceInfoElement = new Element(WORKSPACE_INFO)
-              .setAttribute(COMPUTER_ATTR, workspaceInfo.getComputer())
-              .setAttribute(OWNER_NAME_ATTR, workspaceInfo.getOwnerName())
-              .setAttribute(TIMESTAMP_ATTR, ConverterUtil.convertToString(workspaceInfo.getTimestamp()))
-              .setAttribute(NAME_ATTR, workspaceInfo.getName())
-              .setAttribute(IS_LOCAL_WORKSPACE_ATTR, String.valueOf(workspaceInfo.isLocal()))
-              .setAttribute(OPTIONS_ATTR, String.valueOf(workspaceInfo.getOptions()))
-              // "comment" and "ownerDisplayName" attributes are required (otherwise Eclipse TFS plug-in fails to read cache)
-              .setAttribute(COMMENT_ATTR, StringUtil.notNullize(workspaceInfo.getComment()))
-              .setAttribute(OWNER_DISPLAY_NAME_ATTR, StringUtil.notNullize(workspaceInfo.getOwnerDisplayName()));
-            setIfNotNull(workspaceInfoElement, SECURITY_TOKEN_ATTR, workspaceInfo.getSecurityToken());
-
-            addItems(workspaceInfoElement, MAPPED_PATHS, MAPPED_PATH, PATH_ATTR, workspaceInfo.getWorkingFoldersCached(),
-                     folderInfo -> folderInfo.getLocalPath().getPresentableUrl());
-
-            addItems(workspaceInfoElement, OWNER_ALIASES, OWNER_ALIAS, OWNER_ALIAS_ATTR,
-                     workspaceInfo.getOwnerAliases(), Functions.TO_STRING());
-
-            serverInfoElement.addContent(workspaceInfoElement);
-          }
+        if (myCacheJournal == null || myCacheJournal.save(getServers())) {
+          exportJournaledCache(cacheFile);
+        }
+        else {
+          myXmlCacheOutdated = true;
         }
+      }
+      catch (IOException e) {
+        LOG.info("Cannot update workspace cache", e);
+      }
+    }
+  }
 
-        JdomKt.write(new Element(ROOT).addContent(serversElement), cacheFile);
+  private synchronized void exportOutdatedCache() {
+    Path cacheFile = getCacheFile(false);
+    if (myXmlCacheOutdated && cacheFile != null) {
+      try {
+        exportJournaledCache(cacheFile);
       }
       catch (IOException e) {
         LOG.info("Cannot update workspace cache", e);
@@ -181,6 +206,54 @@ public class Workstation {
     }
   }
 
+  private void exportJournaledCache(@NotNull Path cacheFile) throws IOException {
+    exportCache(cacheFile);
+    myXmlCacheOutdated = false;
+    if (myCacheJournal != null) {
+      // the journal is as current as the XML cache written from it
+      myCacheJournal.setLastModifiedTime(cacheFile);
+    }
+  }
+
+  /**
+   * Writes the cache in XML format that is understood by other TFS clients
+   */
+  public void exportCache(@NotNull Path file) throws IOException {
+    Element serversElement = new Element(SERVERS);
+
+    for (ServerInfo serverInfo : getServers()) {
+      Element serverInfoElement = new Element(SERVER_INFO)
+        .setAttribute(URI_ATTR, serverInfo.getUri().toString())
+        .setAttribute(GUID_ATTR, serverInfo.getGuid());
+
+      serversElement.addContent(serverInfoElement);
+
+      for (WorkspaceInfo workspaceInfo : serverInfo.getWorkspaces()) {
+        Element workspaceInfoElement = new Element(WORKSPACE_INFO)
+          .setAttribute(COMPUTER_ATTR, workspaceInfo.getComputer())
+          .setAttribute(OWNER_NAME_ATTR, workspaceInfo.getOwnerName())
+          .setAttribute(TIMESTAMP_ATTR, ConverterUtil.convertToString(workspaceInfo.getTimestamp()))
+          .setAttribute(NAME_ATTR, workspaceInfo.getName())
+          .setAttribute(IS_LOCAL_WORKSPACE_ATTR, String.valueOf(workspaceInfo.isLocal()))
+          .setAttribute(OPTIONS_ATTR, String.valueOf(workspaceInfo.getOptions()))
+          // "comment" and "ownerDisplayName" attributes are required (otherwise Eclipse TFS plug-in fails to read cache)
+          .setAttribute(COMMENT_ATTR, StringUtil.notNullize(workspaceInfo.getComment()))
+          .setAttribute(OWNER_DISPLAY_NAME_ATTR, StringUtil.notNullize(workspaceInfo.getOwnerDisplayName()));
+        setIfNotNull(workspaceInfoElement, SECURITY_TOKEN_ATTR, workspaceInfo.getSecurityToken());
+
+        addItems(workspaceInfoElement, MAPPED_PATHS, MAPPED_PATH, PATH_ATTR, workspaceInfo.getWorkingFoldersCached(),
+                 folderInfo -> folderInfo.getLocalPath().getPresentableUrl());
+
+        addItems(workspaceInfoElement, OWNER_ALIASES, OWNER_ALIAS, OWNER_ALIAS_ATTR,
+                 workspaceInfo.getOwnerAliases(), Functions.TO_STRING());
+
+        serverInfoElement.addContent(workspaceInfoElement);
+      }
+    }
+
+    JdomKt.write(new Element(ROOT).addContent(serversElement), file);
+  }
+
   private static <T> void addItems(@NotNull Element parentElement,
                                    @NotNull String elementName,
                                    @NotNull String itemElementName,
@@ -211,6 +284,7 @@ public class Workstation {
 
     TFSConfigurationManager.getInstance().remove(serverInfo.getUri());
     update();
+    serverInfo.dispose();
   }
 
   public synchronized static String getComputerName() {
@@ -240,18 +314,18 @@ public class Workstation {
 
   @NotNull
   public Collection<WorkspaceInfo> findWorkspacesCached(final @NotNull FilePath localPath, boolean considerChildMappings) {
-    // try cached working folders first
-    Collection<WorkspaceInfo> result = new ArrayList<>();
-    for (WorkspaceInfo workspace : getAllWorkspacesForCurrentOwnerAndComputer(false)) {
-      if (workspace.hasMappingCached(localPath, considerChildMappings)) {
-        result.add(workspace);
-        if (!considerChildMappings) {
-          // optimization: same local path can't be mapped in different workspaces, so don't process other workspaces
-          break;
-        }
-      }
+    // same local path can't be mapped in different workspaces, so at most one workspace is returned if !considerChildMappings
+    return new ArrayList<>(getMappingsIndex().findWorkspaces(localPath, considerChildMappings));
+  }
+
+  @NotNull
+  private WorkstationMappingsIndex getMappingsIndex() {
+    WorkstationMappingsIndex index = myMappingsIndex;
+    if (index == null || !index.isUpToDate()) {
+      index = new WorkstationMappingsIndex(getServers());
+      myMappingsIndex = index;
     }
-    return result;
+    return index;
   }
 
   @NotNull
@@ -312,27 +386,7 @@ public class Workstation {
 
   @Nullable
   private FilePath findDuplicateMappedPath() {
-    // don't check duplicate mappings within the same server, server side should take care about this
-    Collection<FilePath> otherServersPaths = new ArrayList<>();
-    for (ServerInfo server : getServers()) {
-      Collection<FilePath> currentServerPaths = new ArrayList<>();
-      for (WorkspaceInfo workspace : server.getWorkspacesForCurrentOwnerAndComputer()) {
-        for (WorkingFolderInfo workingFolder : workspace.getWorkingFoldersCached()) {
-          final FilePath currentServerPath = workingFolder.getLocalPath();
-          for (FilePath otherServerPath : otherServersPaths) {
-            if (currentServerPath.isUnder(otherServerPath, false)) {
-              return currentServerPath;
-            }
-            if (otherServerPath.isUnder(currentServerPath, false)) {
-              return otherServerPath;
-            }
-          }
-          currentServerPaths.add(currentServerPath);
-        }
-      }
-      otherServersPaths.addAll(currentServerPaths);
-    }
-    return null;
+    return getMappingsIndex().findDuplicateMappedPath();
   }
 
 }
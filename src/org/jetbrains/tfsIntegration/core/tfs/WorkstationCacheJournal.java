@@ -0,0 +1,320 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.vcsUtil.VcsUtil;
+import org.apache.axis2.databinding.utils.ConverterUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.tfsIntegration.core.TfsBeansHolder;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary workstation cache: a snapshot of all the servers followed by the records of servers changed or removed since then.
+ * Saving appends records only for the servers that differ from the cached state, the file is rewritten once the records pile up.
+ */
+class WorkstationCacheJournal {
+
+  private static final Logger LOG = Logger.getInstance(WorkstationCacheJournal.class.getName());
+
+  private static final int MAGIC = 0x54465343;
+  private static final int VERSION = 1;
+
+  private static final byte SERVER_RECORD = 1;
+  private static final byte REMOVE_SERVER_RECORD = 2;
+
+  // number of appended records that causes the file to be rewritten
+  private static final int MAX_APPENDED_RECORDS = Integer.getInteger("org.jetbrains.tfsIntegration.workstationCacheMaxRecords", 64);
+
+  private final Path myFile;
+  // serialized servers by guid, as they are stored in the file
+  private final Map<String, byte[]> myServers = new LinkedHashMap<>();
+  private int myAppendedRecords;
+  private boolean myNeedsRewrite = true;
+
+  WorkstationCacheJournal(@NotNull Path file) {
+    myFile = file;
+  }
+
+  /**
+   * @return servers stored in the file or null if there is no file or it can't be read
+   */
+  @Nullable
+  synchronized List<ServerInfo> load() {
+    myServers.clear();
+    myAppendedRecords = 0;
+    myNeedsRewrite = true;
+    if (!Files.exists(myFile)) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(myFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOG.info("Unsupported workstation cache format: " + myFile);
+        return null;
+      }
+      boolean truncated = false;
+      int records = 0;
+      while (true) {
+        int kind = in.read();
+        if (kind == -1) {
+          break;
+        }
+        byte[] payload;
+        try {
+          payload = new byte[in.readInt()];
+          in.readFully(payload);
+        }
+        catch (EOFException e) {
+          // last record was not completely written, ignore it
+          truncated = true;
+          break;
+        }
+        DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(payload));
+        String guid = recordIn.readUTF();
+        if (kind == SERVER_RECORD) {
+          // changed server keeps its position
+          myServers.put(guid, payload);
+        }
+        else if (kind == REMOVE_SERVER_RECORD) {
+          myServers.remove(guid);
+        }
+        else {
+          throw new IOException("Unknown record: " + kind);
+        }
+        records++;
+      }
+
+      List<ServerInfo> result = new ArrayList<>(myServers.size());
+      for (byte[] payload : myServers.values()) {
+        result.add(readServer(payload));
+      }
+      myAppendedRecords = Math.max(0, records - myServers.size());
+      myNeedsRewrite = truncated;
+      return result;
+    }
+    catch (IOException | URISyntaxException | RuntimeException e) {
+      LOG.info("Cannot read workstation cache " + myFile, e);
+      myServers.clear();
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the whole file has been rewritten, false if only the changes have been appended
+   */
+  synchronized boolean save(@NotNull List<ServerInfo> servers) throws IOException {
+    Map<String, byte[]> newServers = new LinkedHashMap<>();
+    for (ServerInfo server : servers) {
+      newServers.put(server.getGuid(), writeServer(server));
+    }
+
+    if (myNeedsRewrite || myAppendedRecords >= MAX_APPENDED_RECORDS || !isOrderPreserved(newServers)) {
+      rewrite(newServers);
+      return true;
+    }
+
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(records);
+    int count = 0;
+    for (String guid : myServers.keySet()) {
+      if (!newServers.containsKey(guid)) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        new DataOutputStream(payload).writeUTF(guid);
+        writeRecord(out, REMOVE_SERVER_RECORD, payload.toByteArray());
+        count++;
+      }
+    }
+    for (Map.Entry<String, byte[]> entry : newServers.entrySet()) {
+      if (!Arrays.equals(entry.getValue(), myServers.get(entry.getKey()))) {
+        writeRecord(out, SERVER_RECORD, entry.getValue());
+        count++;
+      }
+    }
+    if (count == 0) {
+      return false;
+    }
+
+    try (OutputStream fileOut = Files.newOutputStream(myFile, StandardOpenOption.APPEND)) {
+      records.writeTo(fileOut);
+    }
+    catch (IOException e) {
+      // the tail of the file is unknown now
+      myNeedsRewrite = true;
+      throw e;
+    }
+    myServers.clear();
+    myServers.putAll(newServers);
+    myAppendedRecords += count;
+    return false;
+  }
+
+  /**
+   * @return true if the file exists and was last written before the given file
+   */
+  synchronized boolean isOlderThan(@NotNull Path file) throws IOException {
+    return Files.exists(myFile) && Files.exists(file) &&
+           Files.getLastModifiedTime(myFile).compareTo(Files.getLastModifiedTime(file)) < 0;
+  }
+
+  /**
+   * Marks the file written at the same time as the given one, so that it is not considered older than a file written after it
+   */
+  synchronized void setLastModifiedTime(@NotNull Path file) throws IOException {
+    if (Files.exists(myFile)) {
+      Files.setLastModifiedTime(myFile, Files.getLastModifiedTime(file));
+    }
+  }
+
+  // a changed server record is read back in place of the old one, but a new server record always goes last
+  private boolean isOrderPreserved(Map<String, byte[]> newServers) {
+    Iterator<String> oldGuids = myServers.keySet().iterator();
+    boolean added = false;
+    for (String guid : newServers.keySet()) {
+      if (!myServers.containsKey(guid)) {
+        added = true;
+        continue;
+      }
+      if (added) {
+        return false;
+      }
+      String oldGuid;
+      do {
+        oldGuid = oldGuids.hasNext() ? oldGuids.next() : null;
+      }
+      while (oldGuid != null && !newServers.containsKey(oldGuid));
+      if (!guid.equals(oldGuid)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rewrite(Map<String, byte[]> servers) throws IOException {
+    Files.createDirectories(myFile.getParent());
+    Path tempFile = Files.createTempFile(myFile.getParent(), myFile.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (byte[] payload : servers.values()) {
+          writeRecord(out, SERVER_RECORD, payload);
+        }
+      }
+      Files.move(tempFile, myFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+    finally {
+      Files.deleteIfExists(tempFile);
+    }
+    myServers.clear();
+    myServers.putAll(servers);
+    myAppendedRecords = 0;
+    myNeedsRewrite = false;
+  }
+
+  private static void writeRecord(DataOutputStream out, byte kind, byte[] payload) throws IOException {
+    out.writeByte(kind);
+    out.writeInt(payload.length);
+    out.write(payload);
+  }
+
+  private static byte[] writeServer(ServerInfo server) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(server.getGuid());
+    out.writeUTF(server.getUri().toString());
+    List<WorkspaceInfo> workspaces = server.getWorkspaces();
+    out.writeInt(workspaces.size());
+    for (WorkspaceInfo workspace : workspaces) {
+      out.writeUTF(workspace.getName());
+      out.writeUTF(workspace.getOwnerName());
+      out.writeUTF(workspace.getComputer());
+      writeNullable(out, workspace.getComment());
+      out.writeUTF(ConverterUtil.convertToString(workspace.getTimestamp()));
+      out.writeBoolean(workspace.isLocal());
+      writeNullable(out, workspace.getOwnerDisplayName());
+      writeNullable(out, workspace.getSecurityToken());
+      out.writeInt(workspace.getOptions());
+
+      List<WorkingFolderInfo> workingFolders = workspace.getWorkingFoldersCached();
+      out.writeInt(workingFolders.size());
+      for (WorkingFolderInfo workingFolder : workingFolders) {
+        out.writeUTF(workingFolder.getLocalPath().getPresentableUrl());
+      }
+      List<String> ownerAliases = workspace.getOwnerAliases();
+      out.writeInt(ownerAliases.size());
+      for (String alias : ownerAliases) {
+        out.writeUTF(alias);
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static ServerInfo readServer(byte[] payload) throws IOException, URISyntaxException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    String guid = in.readUTF();
+    URI serverUri = new URI(in.readUTF());
+    ServerInfo server = new ServerInfo(serverUri, guid, new TfsBeansHolder(serverUri));
+    int workspacesCount = in.readInt();
+    for (int i = 0; i < workspacesCount; i++) {
+      String name = in.readUTF();
+      String owner = in.readUTF();
+      String computer = in.readUTF();
+      String comment = readNullable(in);
+      Calendar timestamp = ConverterUtil.convertToDateTime(in.readUTF());
+      boolean isLocal = in.readBoolean();
+      String ownerDisplayName = readNullable(in);
+      String securityToken = readNullable(in);
+      int options = in.readInt();
+      WorkspaceInfo workspace =
+        new WorkspaceInfo(server, name, owner, computer, comment, timestamp, isLocal, ownerDisplayName, securityToken, options);
+
+      int workingFoldersCount = in.readInt();
+      for (int j = 0; j < workingFoldersCount; j++) {
+        workspace.addWorkingFolderInfo(new WorkingFolderInfo(VcsUtil.getFilePath(in.readUTF(), true)));
+      }
+      int ownerAliasesCount = in.readInt();
+      for (int j = 0; j < ownerAliasesCount; j++) {
+        workspace.addOwnerAlias(in.readUTF());
+      }
+      server.addWorkspaceInfo(workspace);
+    }
+    return server;
+  }
+
+  private static void writeNullable(DataOutputStream out, @Nullable String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  @Nullable
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
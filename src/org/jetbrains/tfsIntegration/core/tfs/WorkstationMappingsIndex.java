@@ -0,0 +1,138 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs;
+
+import com.intellij.openapi.vcs.FilePath;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Cached working folders of all the workspaces of the workstation, sorted by local path.
+ * Workspace ownership is checked on lookup since it depends on current server credentials.
+ */
+class WorkstationMappingsIndex {
+
+  private static class Mapping {
+    private final FilePath myLocalPath;
+    private final WorkspaceInfo myWorkspace;
+    // position of the workspace among all the workspaces of the workstation
+    private final int myWorkspaceOrder;
+
+    private Mapping(FilePath localPath, WorkspaceInfo workspace, int workspaceOrder) {
+      myLocalPath = localPath;
+      myWorkspace = workspace;
+      myWorkspaceOrder = workspaceOrder;
+    }
+  }
+
+  // keys end with separator, so that mappings under some path immediately follow it
+  private final NavigableMap<String, List<Mapping>> myMappings = new TreeMap<>();
+  private final int myModificationStamp;
+
+  WorkstationMappingsIndex(@NotNull List<ServerInfo> servers) {
+    myModificationStamp = WorkingFolderInfo.getModificationStamp();
+    int workspaceOrder = 0;
+    for (ServerInfo server : servers) {
+      for (WorkspaceInfo workspace : server.getWorkspaces()) {
+        for (WorkingFolderInfo workingFolder : workspace.getWorkingFoldersCached()) {
+          myMappings.computeIfAbsent(getKey(workingFolder.getLocalPath().getPath()), k -> new ArrayList<>(1))
+            .add(new Mapping(workingFolder.getLocalPath(), workspace, workspaceOrder));
+        }
+        workspaceOrder++;
+      }
+    }
+  }
+
+  /**
+   * @return false if any of working folders was modified since the index has been built
+   */
+  boolean isUpToDate() {
+    return myModificationStamp == WorkingFolderInfo.getModificationStamp();
+  }
+
+  /**
+   * @return workspaces of current owner that have given local path mapped (max 1 if considerChildMappings=false),
+   *         in the order of servers and their workspaces
+   */
+  @NotNull
+  Collection<WorkspaceInfo> findWorkspaces(@NotNull FilePath localPath, boolean considerChildMappings) {
+    SortedMap<Integer, WorkspaceInfo> result = new TreeMap<>();
+    String key = getKey(localPath.getPath());
+    // parent mappings
+    for (int i = key.indexOf('/'); i != -1; i = key.indexOf('/', i + 1)) {
+      addWorkspaces(myMappings.get(key.substring(0, i + 1)), result);
+    }
+    if (considerChildMappings) {
+      // '0' follows '/' in ASCII, so the range holds all the keys starting with the given one
+      for (List<Mapping> mappings : myMappings.subMap(key, true, key.substring(0, key.length() - 1) + '0', false).values()) {
+        addWorkspaces(mappings, result);
+      }
+      return result.values();
+    }
+    else {
+      return result.isEmpty() ? Collections.emptyList() : Collections.singletonList(result.get(result.firstKey()));
+    }
+  }
+
+  /**
+   * @return local path of current owner's workspace that is equal to or under local path mapped on another server
+   */
+  @Nullable
+  FilePath findDuplicateMappedPath() {
+    // don't check duplicate mappings within the same server, server side should take care about this
+    Deque<String> parentKeys = new ArrayDeque<>();
+    ServerInfo parentServer = null;
+    for (Map.Entry<String, List<Mapping>> entry : myMappings.entrySet()) {
+      String key = entry.getKey();
+      while (!parentKeys.isEmpty() && !key.startsWith(parentKeys.peek())) {
+        parentKeys.pop();
+      }
+      for (Mapping mapping : entry.getValue()) {
+        if (!mapping.myWorkspace.hasCurrentOwnerAndComputer()) {
+          continue;
+        }
+        if (parentKeys.isEmpty()) {
+          parentServer = mapping.myWorkspace.getServer();
+        }
+        else if (!parentServer.equals(mapping.myWorkspace.getServer())) {
+          // all the parent mappings belong to the same server, otherwise duplicate would have been found before
+          return mapping.myLocalPath;
+        }
+        if (parentKeys.isEmpty() || !key.equals(parentKeys.peek())) {
+          parentKeys.push(key);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static void addWorkspaces(@Nullable List<Mapping> mappings, Map<Integer, WorkspaceInfo> result) {
+    if (mappings != null) {
+      for (Mapping mapping : mappings) {
+        if (!result.containsKey(mapping.myWorkspaceOrder) && mapping.myWorkspace.hasCurrentOwnerAndComputer()) {
+          result.put(mapping.myWorkspaceOrder, mapping.myWorkspace);
+        }
+      }
+    }
+  }
+
+  private static String getKey(@NotNull String localPath) {
+    return VersionControlPath.getLocalPathKey(localPath) + "/";
+  }
+}
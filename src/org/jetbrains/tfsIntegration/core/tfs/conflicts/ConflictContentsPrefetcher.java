@@ -0,0 +1,196 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs.conflicts;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.Conflict;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.ConflictType;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.ItemType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.tfsIntegration.core.revision.TFSContentRevision;
+import org.jetbrains.tfsIntegration.core.tfs.WorkspaceInfo;
+import org.jetbrains.tfsIntegration.exceptions.TfsException;
+import org.jetbrains.tfsIntegration.webservice.TfsRequestManager;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads server contents needed to merge conflicts in background, so that they are at hand once the user chooses to merge.
+ * Loaded contents are kept in memory until they are taken or their conflict is resolved, not more than {@link #BUDGET} bytes at a time.
+ */
+public class ConflictContentsPrefetcher {
+  private static final Logger LOG = Logger.getInstance(ConflictContentsPrefetcher.class.getName());
+
+  // 0 turns prefetching off
+  private static final long BUDGET = Long.getLong("org.jetbrains.tfsIntegration.conflictPrefetchBudgetMb", 64) * 1024 * 1024;
+  // number of contents loaded simultaneously
+  private static final int PARALLEL_LOADS = Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.parallelConflictPrefetch", 4));
+  private static final Executor ourLoadsExecutor = TfsRequestManager.createTasksExecutor("TFS Conflict Contents", PARALLEL_LOADS);
+
+  private final Project myProject;
+  private final ProgressIndicator myLoadsIndicator = new EmptyProgressIndicator();
+  private final Map<String, Prefetch> myContents = new ConcurrentHashMap<>();
+  private final AtomicLong myLoadedBytes = new AtomicLong();
+
+  private static class Prefetch {
+    private Future<byte[]> myFuture;
+    // guarded by this
+    private long myReservedBytes;
+    private boolean myReleased;
+  }
+
+  public ConflictContentsPrefetcher(Project project) {
+    myProject = project;
+  }
+
+  /**
+   * Starts loading contents of the conflicts that may be merged
+   */
+  public void prefetch(@NotNull WorkspaceInfo workspace, @NotNull Collection<? extends Conflict> conflicts) {
+    if (BUDGET <= 0) {
+      return;
+    }
+    for (Conflict conflict : conflicts) {
+      if (conflict.getYtype() != ItemType.File ||
+          !ResolveConflictHelper.canMerge(conflict) ||
+          !ResolveConflictHelper.isContentConflict(conflict)) {
+        continue;
+      }
+      // the same revisions as ResolveConflictHelper.acceptMerge() loads, local content is read when merging
+      if (conflict.getCtype() == ConflictType.Merge) {
+        schedule(workspace, conflict.getYver(), conflict.getYitemid());
+      }
+      schedule(workspace, conflict.getTver(), conflict.getTitemid());
+      schedule(workspace, conflict.getBver(), conflict.getBitemid());
+    }
+  }
+
+  /**
+   * Releases contents of the conflict once it is resolved, cancelling their loads if they are still in progress
+   */
+  void release(@NotNull WorkspaceInfo workspace, @NotNull Conflict conflict) {
+    release(myContents.remove(getKey(workspace, conflict.getYver(), conflict.getYitemid())));
+    release(myContents.remove(getKey(workspace, conflict.getTver(), conflict.getTitemid())));
+    release(myContents.remove(getKey(workspace, conflict.getBver(), conflict.getBitemid())));
+  }
+
+  /**
+   * Waits for the content if it is being loaded
+   *
+   * @return content of the revision or null if it was not prefetched
+   */
+  @Nullable
+  byte[] take(@NotNull WorkspaceInfo workspace, int version, int itemId) {
+    Prefetch prefetch = myContents.remove(getKey(workspace, version, itemId));
+    if (prefetch == null) {
+      return null;
+    }
+    byte[] content = waitFor(prefetch.myFuture);
+    // the content is not held here any more
+    release(prefetch);
+    return content;
+  }
+
+  /**
+   * Cancels loads still in progress and releases loaded contents
+   */
+  public void dispose() {
+    myLoadsIndicator.cancel();
+    for (Prefetch prefetch : myContents.values()) {
+      release(prefetch);
+    }
+    myContents.clear();
+  }
+
+  private void schedule(final WorkspaceInfo workspace, final int version, final int itemId) {
+    myContents.computeIfAbsent(getKey(workspace, version, itemId), key -> {
+      Prefetch prefetch = new Prefetch();
+      prefetch.myFuture = TfsRequestManager.submit(() -> load(prefetch, workspace, version, itemId), myLoadsIndicator, ourLoadsExecutor);
+      return prefetch;
+    });
+  }
+
+  private void release(@Nullable Prefetch prefetch) {
+    if (prefetch == null) {
+      return;
+    }
+    synchronized (prefetch) {
+      prefetch.myReleased = true;
+      myLoadedBytes.addAndGet(-prefetch.myReservedBytes);
+      prefetch.myReservedBytes = 0;
+    }
+    prefetch.myFuture.cancel(false);
+  }
+
+  @Nullable
+  private byte[] load(Prefetch prefetch, WorkspaceInfo workspace, int version, int itemId) {
+    if (myLoadedBytes.get() >= BUDGET) {
+      // will be loaded on demand
+      return null;
+    }
+    byte[] content;
+    try {
+      content = TFSContentRevision.create(myProject, workspace, version, itemId).getContentAsBytes();
+    }
+    catch (TfsException | VcsException e) {
+      // will be loaded (and reported) again on demand
+      LOG.info("Cannot prefetch content of item " + itemId + " at " + version, e);
+      return null;
+    }
+    if (content == null) {
+      return null;
+    }
+    synchronized (prefetch) {
+      if (prefetch.myReleased) {
+        return null;
+      }
+      // loads running at the same time may have used the rest of the budget
+      if (myLoadedBytes.addAndGet(content.length) > BUDGET) {
+        myLoadedBytes.addAndGet(-content.length);
+        return null;
+      }
+      prefetch.myReservedBytes = content.length;
+    }
+    return content;
+  }
+
+  @Nullable
+  private static byte[] waitFor(Future<byte[]> future) {
+    try {
+      return TfsRequestManager.waitFor(future);
+    }
+    catch (ExecutionException | CancellationException e) {
+      return null;
+    }
+  }
+
+  private static String getKey(WorkspaceInfo workspace, int version, int itemId) {
+    return workspace.getServer().getUri() + "|" + itemId + "|" + version;
+  }
+}
@@ -21,6 +21,7 @@ import org.jetbrains.tfsIntegration.ui.ResolveConflictsDialog;
 public class DialogConflictsHandler implements ConflictsHandler {
   @Override
   public void resolveConflicts(final ResolveConflictHelper resolveConflictHelper) {
+    resolveConflictHelper.autoMerge();
     if (resolveConflictHelper.getConflicts().isEmpty()) {
       return;
     }
@@ -16,7 +16,13 @@
 
 package org.jetbrains.tfsIntegration.core.tfs.conflicts;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.MessageType;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.CurrentContentRevision;
@@ -24,33 +30,56 @@ import com.intellij.openapi.vcs.update.FileGroup;
 import com.intellij.openapi.vcs.update.UpdatedFiles;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ArrayUtilRt;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.diff.FilesTooBigForDiffException;
 import com.intellij.vcsUtil.VcsRunnable;
 import com.intellij.vcsUtil.VcsUtil;
 import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.core.TFSBundle;
+import org.jetbrains.tfsIntegration.core.TFSProgressUtil;
 import org.jetbrains.tfsIntegration.core.TFSVcs;
+import org.jetbrains.tfsIntegration.core.configuration.TFSConfigurationManager;
 import org.jetbrains.tfsIntegration.core.revision.TFSContentRevision;
 import org.jetbrains.tfsIntegration.core.tfs.*;
 import org.jetbrains.tfsIntegration.core.tfs.operations.ApplyGetOperations;
 import org.jetbrains.tfsIntegration.core.tfs.operations.ApplyProgress;
 import org.jetbrains.tfsIntegration.exceptions.TfsException;
 import org.jetbrains.tfsIntegration.ui.ContentTriplet;
+import org.jetbrains.tfsIntegration.webservice.TfsRequestManager;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.*;
 
 public class ResolveConflictHelper {
+  private static final Logger LOG = Logger.getInstance(ResolveConflictHelper.class.getName());
+
+  // number of conflicts loaded and merged simultaneously
+  private static final int PARALLEL_MERGES = Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.parallelAutoMerges", 4));
+
   private final @NotNull Project myProject;
   private final @Nullable UpdatedFiles myUpdatedFiles;
+  private final @Nullable ConflictContentsPrefetcher myPrefetcher;
   private final Map<Conflict, WorkspaceInfo> myConflict2Workspace = new HashMap<>();
 
   public ResolveConflictHelper(final Project project,
                                Map<WorkspaceInfo, Collection<Conflict>> workspace2Conflicts,
                                final UpdatedFiles updatedFiles) {
+    this(project, workspace2Conflicts, updatedFiles, null);
+  }
+
+  /**
+   * @param prefetcher contents of the conflicts loaded in background, if any
+   */
+  public ResolveConflictHelper(final Project project,
+                               Map<WorkspaceInfo, Collection<Conflict>> workspace2Conflicts,
+                               final UpdatedFiles updatedFiles,
+                               @Nullable ConflictContentsPrefetcher prefetcher) {
     myProject = project;
+    myPrefetcher = prefetcher;
 
     for (Map.Entry<WorkspaceInfo, Collection<Conflict>> e : workspace2Conflicts.entrySet()) {
       for (Conflict conflict : e.getValue()) {
@@ -65,9 +94,7 @@ public class ResolveConflictHelper {
 
     final WorkspaceInfo workspace = myConflict2Workspace.get(conflict);
 
-    @NotNull final FilePath localPath = VersionControlPath
-      .getFilePath(conflict.getSrclitem() != null ? conflict.getSrclitem() : conflict.getTgtlitem(),
-                   conflict.getYtype() == ItemType.Folder);
+    @NotNull final FilePath localPath = getLocalPath(conflict);
 
     final ContentTriplet contentTriplet = new ContentTriplet();
     VcsRunnable runnable = new VcsRunnable() {
@@ -77,20 +104,7 @@ public class ResolveConflictHelper {
         TfsFileUtil.refreshAndFindFile(localPath);
         try {
           if (conflict.getYtype() == ItemType.File) {
-            byte[] current;
-            byte[] last;
-            if (conflict.getCtype() == ConflictType.Merge) {
-              current = TFSContentRevision.create(myProject, workspace, conflict.getTver(), conflict.getTitemid()).getContentAsBytes();
-              last = TFSContentRevision.create(myProject, workspace, conflict.getYver(), conflict.getYitemid()).getContentAsBytes();
-            }
-            else {
-              current = ((CurrentContentRevision)CurrentContentRevision.create(localPath)).getContentAsBytes();
-              last = TFSContentRevision.create(myProject, workspace, conflict.getTver(), conflict.getTitemid()).getContentAsBytes();
-            }
-            byte[] original = TFSContentRevision.create(myProject, workspace, conflict.getBver(), conflict.getBitemid()).getContentAsBytes();
-            contentTriplet.baseContent = original != null ? original : ArrayUtilRt.EMPTY_BYTE_ARRAY;
-            contentTriplet.localContent = current != null ? current : ArrayUtilRt.EMPTY_BYTE_ARRAY;
-            contentTriplet.serverContent = last != null ? last : ArrayUtilRt.EMPTY_BYTE_ARRAY;
+            loadContents(conflict, workspace, localPath, false, contentTriplet);
           }
         }
         catch (TfsException e) {
@@ -149,6 +163,193 @@ public class ResolveConflictHelper {
     }
   }
 
+  /**
+   * Merges content conflicts which changes don't overlap and resolves them at once, the rest are left to the user.
+   * Does nothing unless turned on in TFS settings.
+   */
+  public void autoMerge() {
+    if (!TFSConfigurationManager.getInstance().autoMergeConflicts()) {
+      return;
+    }
+    final List<Conflict> conflicts = new ArrayList<>();
+    for (Conflict conflict : myConflict2Workspace.keySet()) {
+      if (conflict.getYtype() == ItemType.File && canMerge(conflict) && isContentConflict(conflict) && !isNameConflict(conflict)) {
+        conflicts.add(conflict);
+      }
+    }
+    if (conflicts.isEmpty()) {
+      return;
+    }
+
+    final List<VcsException> errors = new ArrayList<>();
+    try {
+      if (ApplicationManager.getApplication().isDispatchThread()) {
+        VcsUtil.runVcsProcessWithProgress(() -> autoMerge(conflicts, errors), TFSBundle.message("merging"), true, myProject);
+      }
+      else {
+        autoMerge(conflicts, errors);
+      }
+    }
+    catch (VcsException e) {
+      errors.add(e);
+    }
+    if (!errors.isEmpty()) {
+      // the conflicts not resolved are left to the user
+      TfsUtil.showBalloon(myProject, MessageType.WARNING,
+                          TFSBundle.message("auto.merge.failed", TfsUtil.collectExceptions(errors).getMessage()));
+    }
+  }
+
+  private void autoMerge(List<Conflict> conflicts, List<VcsException> errors) {
+    TFSProgressUtil.setProgressText(ProgressManager.getInstance().getProgressIndicator(), TFSBundle.message("merging"));
+    List<ThrowableComputable<byte[], RuntimeException>> merges = new ArrayList<>(conflicts.size());
+    for (final Conflict conflict : conflicts) {
+      final WorkspaceInfo workspace = myConflict2Workspace.get(conflict);
+      merges.add(() -> merge(conflict, workspace));
+    }
+    List<byte[]> mergedContents = TfsRequestManager.invokeAll(merges, PARALLEL_MERGES);
+
+    final Map<WorkspaceInfo, Map<Conflict, byte[]>> workspace2Merged = new LinkedHashMap<>();
+    for (int i = 0; i < conflicts.size(); i++) {
+      Conflict conflict = conflicts.get(i);
+      byte[] mergedContent = mergedContents.get(i);
+      if (mergedContent != null) {
+        workspace2Merged.computeIfAbsent(myConflict2Workspace.get(conflict), w -> new LinkedHashMap<>()).put(conflict, mergedContent);
+      }
+    }
+
+    final List<VirtualFile> mergedFiles = new ArrayList<>();
+    try {
+      for (Map.Entry<WorkspaceInfo, Map<Conflict, byte[]>> e : workspace2Merged.entrySet()) {
+        if (resolveMerged(e.getKey(), e.getValue(), errors)) {
+          for (Conflict conflict : e.getValue().keySet()) {
+            ContainerUtil.addIfNotNull(mergedFiles, getLocalPath(conflict).getVirtualFile());
+          }
+        }
+      }
+    }
+    finally {
+      TfsFileUtil.refreshAndMarkDirty(myProject, mergedFiles, true);
+    }
+  }
+
+  /**
+   * Writes merged contents of the conflicts and resolves them together. Original contents are restored if the server does not accept
+   * the resolve or the operation is cancelled, so the conflicts are left to the user as they were.
+   *
+   * @return true if the conflicts are resolved
+   */
+  private boolean resolveMerged(WorkspaceInfo workspace, Map<Conflict, byte[]> merged, List<VcsException> errors) {
+    final Map<File, byte[]> originalContents = new HashMap<>();
+    boolean resolved = false;
+    try {
+      List<VersionControlServer.ResolveConflictParams> params = new ArrayList<>(merged.size());
+      for (Map.Entry<Conflict, byte[]> e : merged.entrySet()) {
+        ProgressManager.checkCanceled();
+        File file = getLocalPath(e.getKey()).getIOFile();
+        originalContents.put(file, FileUtil.loadFileBytes(file));
+        writeContent(file, e.getValue());
+        params.add(createResolveParams(e.getKey(), Resolution.AcceptMerge, e.getKey().getTgtlitem(), false));
+      }
+      List<ResolveResponse> responses = workspace.getServer().getVCS()
+        .resolveConflicts(workspace.getName(), workspace.getOwnerName(), params, myProject,
+                          TFSBundle.message("reporting.conflict.resolved"));
+      // merged contents are kept from now on, since the server considers the conflicts resolved
+      resolved = true;
+      int i = 0;
+      for (Conflict conflict : merged.keySet()) {
+        applyResolveResponse(conflict, workspace, Resolution.AcceptMerge,
+                             VersionControlPath.localPathFromTfsRepresentation(conflict.getTgtlitem()), responses.get(i++));
+      }
+    }
+    catch (IOException | TfsException e) {
+      errors.add(new VcsException(e));
+    }
+    catch (VcsException e) {
+      errors.add(e);
+    }
+    finally {
+      if (!resolved) {
+        restoreContents(originalContents, errors);
+      }
+    }
+    return resolved;
+  }
+
+  private static void restoreContents(Map<File, byte[]> originalContents, List<VcsException> errors) {
+    for (Map.Entry<File, byte[]> e : originalContents.entrySet()) {
+      try {
+        writeContent(e.getKey(), e.getValue());
+      }
+      catch (IOException ex) {
+        LOG.warn("Cannot restore content of " + e.getKey(), ex);
+        errors.add(new VcsException(ex));
+      }
+    }
+  }
+
+  /**
+   * @return merged content or null if the conflict needs to be merged by the user
+   */
+  @Nullable
+  private byte[] merge(Conflict conflict, WorkspaceInfo workspace) {
+    FilePath localPath = getLocalPath(conflict);
+    try {
+      ContentTriplet contentTriplet = new ContentTriplet();
+      // the file is read directly since its virtual file may be not refreshed yet
+      loadContents(conflict, workspace, localPath, true, contentTriplet);
+      return ThreeWayMerge.merge(contentTriplet.baseContent, contentTriplet.localContent, contentTriplet.serverContent);
+    }
+    catch (TfsException | VcsException | FilesTooBigForDiffException e) {
+      LOG.info("Cannot merge " + localPath.getPresentableUrl() + " automatically", e);
+      return null;
+    }
+  }
+
+  private static void writeContent(File file, byte[] content) throws IOException {
+    if (file.exists() && !file.canWrite()) {
+      FileUtil.setReadOnlyAttribute(file.getPath(), false);
+    }
+    FileUtil.writeToFile(file, content);
+  }
+
+  private void loadContents(Conflict conflict,
+                            WorkspaceInfo workspace,
+                            FilePath localPath,
+                            boolean readLocalFile,
+                            ContentTriplet contentTriplet) throws TfsException, VcsException {
+    byte[] current;
+    byte[] last;
+    if (conflict.getCtype() == ConflictType.Merge) {
+      current = loadContent(workspace, conflict.getTver(), conflict.getTitemid());
+      last = loadContent(workspace, conflict.getYver(), conflict.getYitemid());
+    }
+    else {
+      if (readLocalFile) {
+        try {
+          current = FileUtil.loadFileBytes(localPath.getIOFile());
+        }
+        catch (IOException e) {
+          throw new VcsException(e);
+        }
+      }
+      else {
+        current = ((CurrentContentRevision)CurrentContentRevision.create(localPath)).getContentAsBytes();
+      }
+      last = loadContent(workspace, conflict.getTver(), conflict.getTitemid());
+    }
+    byte[] original = loadContent(workspace, conflict.getBver(), conflict.getBitemid());
+    contentTriplet.baseContent = original != null ? original : ArrayUtilRt.EMPTY_BYTE_ARRAY;
+    contentTriplet.localContent = current != null ? current : ArrayUtilRt.EMPTY_BYTE_ARRAY;
+    contentTriplet.serverContent = last != null ? last : ArrayUtilRt.EMPTY_BYTE_ARRAY;
+  }
+
+  @Nullable
+  private byte[] loadContent(WorkspaceInfo workspace, int version, int itemId) throws TfsException, VcsException {
+    byte[] content = myPrefetcher != null ? myPrefetcher.take(workspace, version, itemId) : null;
+    return content != null ? content : TFSContentRevision.create(myProject, workspace, version, itemId).getContentAsBytes();
+  }
+
   public void acceptYours(final @NotNull Conflict conflict) throws TfsException, VcsException {
     String localPath =
       VersionControlPath.localPathFromTfsRepresentation(conflict.getSrclitem() != null ? conflict.getSrclitem() : conflict.getTgtlitem());
@@ -215,14 +416,26 @@ public class ResolveConflictHelper {
     throws TfsException, VcsException {
     WorkspaceInfo workspace = myConflict2Workspace.get(conflict);
 
-    VersionControlServer.ResolveConflictParams resolveConflictParams =
-      new VersionControlServer.ResolveConflictParams(conflict.getCid(), resolution, LockLevel.Unchanged, -2,
-                                                     sendPath ? VersionControlPath.toTfsRepresentation(newLocalPath) : null);
-
     ResolveResponse response =
-      workspace.getServer().getVCS().resolveConflict(workspace.getName(), workspace.getOwnerName(), resolveConflictParams, myProject,
-                                                     TFSBundle.message("reporting.conflict.resolved"));
+      workspace.getServer().getVCS()
+        .resolveConflict(workspace.getName(), workspace.getOwnerName(), createResolveParams(conflict, resolution, newLocalPath, sendPath),
+                         myProject, TFSBundle.message("reporting.conflict.resolved"));
+    applyResolveResponse(conflict, workspace, resolution, newLocalPath, response);
+  }
 
+  private static VersionControlServer.ResolveConflictParams createResolveParams(Conflict conflict,
+                                                                                Resolution resolution,
+                                                                                @NotNull String newLocalPath,
+                                                                                boolean sendPath) {
+    return new VersionControlServer.ResolveConflictParams(conflict.getCid(), resolution, LockLevel.Unchanged, -2,
+                                                          sendPath ? VersionControlPath.toTfsRepresentation(newLocalPath) : null);
+  }
+
+  private void applyResolveResponse(Conflict conflict,
+                                    WorkspaceInfo workspace,
+                                    Resolution resolution,
+                                    @NotNull String newLocalPath,
+                                    ResolveResponse response) throws TfsException, VcsException {
     final UpdatedFiles updatedFiles = resolution != Resolution.AcceptMerge ? myUpdatedFiles : null;
 
     if (response.getResolveResult().getGetOperation() != null) {
@@ -251,16 +464,25 @@ public class ResolveConflictHelper {
         myUpdatedFiles.getGroupById(FileGroup.MERGED_ID).add(newLocalPath, TFSVcs.getKey(), null);
       }
     }
+    if (myPrefetcher != null) {
+      myPrefetcher.release(workspace, conflict);
+    }
     myConflict2Workspace.remove(conflict);
   }
 
+  @NotNull
+  private static FilePath getLocalPath(final @NotNull Conflict conflict) {
+    return VersionControlPath.getFilePath(conflict.getSrclitem() != null ? conflict.getSrclitem() : conflict.getTgtlitem(),
+                                          conflict.getYtype() == ItemType.Folder);
+  }
+
   private static boolean isNameConflict(final @NotNull Conflict conflict) {
     final ChangeTypeMask yourChange = new ChangeTypeMask(conflict.getYchg());
     final ChangeTypeMask baseChange = new ChangeTypeMask(conflict.getBchg());
     return yourChange.contains(ChangeType_type0.Rename) || baseChange.contains(ChangeType_type0.Rename);
   }
 
-  private static boolean isContentConflict(final @NotNull Conflict conflict) {
+  static boolean isContentConflict(final @NotNull Conflict conflict) {
     final ChangeTypeMask yourChange = new ChangeTypeMask(conflict.getYchg());
     final ChangeTypeMask baseChange = new ChangeTypeMask(conflict.getBchg());
     return yourChange.contains(ChangeType_type0.Edit) || baseChange.contains(ChangeType_type0.Edit);
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs.conflicts;
+
+import com.intellij.util.diff.Diff;
+import com.intellij.util.diff.FilesTooBigForDiffException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line based three-way merge of contents that can be merged without the user: changes made on both sides must be separated
+ * by at least one unchanged line, unless they are the same. Contents are compared byte by byte, so that any ASCII compatible
+ * encoding and line separators are kept as they are.
+ */
+public class ThreeWayMerge {
+
+  private static class Hunk {
+    // range of base lines replaced
+    private final int myBaseStart;
+    private final int myBaseEnd;
+    private final String[] myLines;
+    // range of myLines to replace them with
+    private final int myStart;
+    private final int myEnd;
+
+    private Hunk(Diff.Change change, String[] lines) {
+      myBaseStart = change.line0;
+      myBaseEnd = change.line0 + change.deleted;
+      myLines = lines;
+      myStart = change.line1;
+      myEnd = change.line1 + change.inserted;
+    }
+
+    private boolean isBefore(Hunk hunk) {
+      return myBaseEnd < hunk.myBaseStart;
+    }
+
+    private boolean isSameAs(Hunk hunk) {
+      return myBaseStart == hunk.myBaseStart &&
+             myBaseEnd == hunk.myBaseEnd &&
+             Arrays.equals(Arrays.copyOfRange(myLines, myStart, myEnd), Arrays.copyOfRange(hunk.myLines, hunk.myStart, hunk.myEnd));
+    }
+  }
+
+  /**
+   * @return merged content or null if the changes overlap or the contents are binary
+   */
+  @Nullable
+  public static byte[] merge(@NotNull byte[] base, @NotNull byte[] local, @NotNull byte[] server) throws FilesTooBigForDiffException {
+    if (Arrays.equals(base, server) || Arrays.equals(local, server)) {
+      return local;
+    }
+    if (Arrays.equals(base, local)) {
+      return server;
+    }
+    if (isBinary(base) || isBinary(local) || isBinary(server)) {
+      return null;
+    }
+
+    String[] baseLines = splitLines(base);
+    List<Hunk> localHunks = getHunks(baseLines, splitLines(local));
+    List<Hunk> serverHunks = getHunks(baseLines, splitLines(server));
+
+    List<Hunk> hunks = new ArrayList<>(localHunks.size() + serverHunks.size());
+    int l = 0;
+    int s = 0;
+    while (l < localHunks.size() || s < serverHunks.size()) {
+      Hunk localHunk = l < localHunks.size() ? localHunks.get(l) : null;
+      Hunk serverHunk = s < serverHunks.size() ? serverHunks.get(s) : null;
+      if (serverHunk == null || localHunk != null && localHunk.isBefore(serverHunk)) {
+        hunks.add(localHunk);
+        l++;
+      }
+      else if (localHunk == null || serverHunk.isBefore(localHunk)) {
+        hunks.add(serverHunk);
+        s++;
+      }
+      else if (localHunk.isSameAs(serverHunk)) {
+        hunks.add(localHunk);
+        l++;
+        s++;
+      }
+      else {
+        return null;
+      }
+    }
+
+    ByteArrayOutputStream result = new ByteArrayOutputStream(Math.max(local.length, server.length));
+    int baseLine = 0;
+    for (Hunk hunk : hunks) {
+      write(result, baseLines, baseLine, hunk.myBaseStart);
+      write(result, hunk.myLines, hunk.myStart, hunk.myEnd);
+      baseLine = hunk.myBaseEnd;
+    }
+    write(result, baseLines, baseLine, baseLines.length);
+    return result.toByteArray();
+  }
+
+  private static List<Hunk> getHunks(String[] baseLines, String[] lines) throws FilesTooBigForDiffException {
+    List<Hunk> result = new ArrayList<>();
+    for (Diff.Change change = Diff.buildChanges(baseLines, lines); change != null; change = change.link) {
+      result.add(new Hunk(change, lines));
+    }
+    return result;
+  }
+
+  private static boolean isBinary(byte[] content) {
+    for (byte b : content) {
+      if (b == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return lines along with their separators, as strings of the same bytes
+   */
+  private static String[] splitLines(byte[] content) {
+    List<String> result = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < content.length; i++) {
+      if (content[i] == '\n') {
+        result.add(new String(content, start, i + 1 - start, StandardCharsets.ISO_8859_1));
+        start = i + 1;
+      }
+    }
+    if (start < content.length) {
+      result.add(new String(content, start, content.length - start, StandardCharsets.ISO_8859_1));
+    }
+    return result.toArray(new String[0]);
+  }
+
+  private static void write(ByteArrayOutputStream out, String[] lines, int from, int to) {
+    for (int i = from; i < to; i++) {
+      byte[] bytes = lines[i].getBytes(StandardCharsets.ISO_8859_1);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package org.jetbrains.tfsIntegration.core.tfs.operations;
 
 import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.Ref;
@@ -34,15 +35,17 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.core.TFSBundle;
 import org.jetbrains.tfsIntegration.core.TFSVcs;
+import org.jetbrains.tfsIntegration.core.revision.TFSContentStore;
+import org.jetbrains.tfsIntegration.core.revision.TFSContentStoreFactory;
 import org.jetbrains.tfsIntegration.core.tfs.*;
 import org.jetbrains.tfsIntegration.exceptions.OperationFailedException;
 import org.jetbrains.tfsIntegration.exceptions.TfsException;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -51,6 +54,9 @@ import java.util.List;
 @SuppressWarnings({"HardCodedStringLiteral"})
 public class ApplyGetOperations {
   private static LocalConflictHandlingType ourLocalConflictHandlingType = LocalConflictHandlingType.SHOW_MESSAGE;
+  // local versions are reported while the get goes on, so that the files already written are not downloaded again if it's interrupted
+  private static final int LOCAL_VERSIONS_BATCH_SIZE =
+    Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.localVersionsBatchSize", 500));
 
 
   private final Project myProject;
@@ -59,8 +65,9 @@ public class ApplyGetOperations {
   private final @NotNull ApplyProgress myProgress;
   private final @Nullable UpdatedFiles myUpdatedFiles;
   private final Collection<VcsException> myErrors = new ArrayList<>();
-  private final Collection<LocalVersionUpdate> myUpdateLocalVersions = new ArrayList<>();
+  private final List<LocalVersionUpdate> myUpdateLocalVersions = new ArrayList<>();
   private final DownloadMode myDownloadMode;
+  private @Nullable DownloadQueue myDownloads;
 
   public enum DownloadMode {
     FORCE,
@@ -115,7 +122,12 @@ public class ApplyGetOperations {
     // parent folders modificating operations should be processed before children to update affected child paths correctly
     List<GetOperation> sortedOperations = new ArrayList<>(myOperations);//GetOperationsUtil.sortGetOperations(myOperations);
     // TODO do we need to sort them or they come in apply order?
+    // source paths change as folders are renamed
+    LocalPathTree sourcePaths = new LocalPathTree(sortedOperations);
 
+    if (myDownloadMode != DownloadMode.FORBID && DownloadQueue.isEnabled()) {
+      myDownloads = new DownloadQueue(myProject, myWorkspace.getServer().getVCS(), myProgress, myErrors);
+    }
     try {
       for (int i = 0; i < sortedOperations.size(); i++) {
         if (myProgress.isCancelled()) {
@@ -123,6 +135,18 @@ public class ApplyGetOperations {
         }
 
         GetOperation operationToExecute = sortedOperations.get(i);
+        sourcePaths.updateSourcePath(operationToExecute);
+        if (myDownloads != null) {
+          // folder operations and operations on files being downloaded depend on the results of previous operations
+          if (operationToExecute.getType() == ItemType.Folder ||
+              myDownloads.isQueued(operationToExecute.getSlocal()) ||
+              myDownloads.isQueued(operationToExecute.getTlocal())) {
+            myDownloads.applyAll();
+          }
+          else {
+            myDownloads.applyCompleted();
+          }
+        }
 
         String currentPath = VersionControlPath.localPathFromTfsRepresentation(
           operationToExecute.getTlocal() != null ? operationToExecute.getTlocal() : operationToExecute.getSlocal());
@@ -131,7 +155,7 @@ public class ApplyGetOperations {
             .findLocalPathByServerPath(operationToExecute.getTitem(), operationToExecute.getType() == ItemType.Folder, myProject);
           currentPath = unexistingPath.getPresentableUrl();
         }
-        myProgress.setFraction(i / sortedOperations.size());
+        myProgress.setFraction((double)i / sortedOperations.size());
         myProgress.setText(currentPath);
 
         if (operationToExecute.getCnflct()) {
@@ -164,18 +188,50 @@ public class ApplyGetOperations {
         else {
           processFolderChange(operationToExecute);
           if (!operationToExecute.getSlocal().equals(operationToExecute.getTlocal())) {
-            GetOperationsUtil.updateSourcePaths(sortedOperations, i, operationToExecute);
+            sourcePaths.move(operationToExecute.getSlocal(), operationToExecute.getTlocal());
           }
         }
+
+        if (myUpdateLocalVersions.size() >= LOCAL_VERSIONS_BATCH_SIZE) {
+          flushLocalVersions();
+        }
+      }
+      if (myDownloads != null) {
+        myDownloads.applyAll();
       }
 
-      myWorkspace.getServer().getVCS()
-        .updateLocalVersions(myWorkspace.getName(), myWorkspace.getOwnerName(), myUpdateLocalVersions, myProject,
-                             TFSBundle.message("updating.local.version"));
+      flushLocalVersions();
     }
     catch (TfsException e) {
       myErrors.add(new VcsException(e));
     }
+    finally {
+      if (myDownloads != null) {
+        myDownloads.discard();
+      }
+      if (!myUpdateLocalVersions.isEmpty()) {
+        // get is cancelled or failed, still report the files already written
+        ProgressManager.getInstance().executeNonCancelableSection(() -> {
+          try {
+            flushLocalVersions();
+          }
+          catch (TfsException e) {
+            myErrors.add(new VcsException(e));
+          }
+        });
+      }
+    }
+  }
+
+  private void flushLocalVersions() throws TfsException {
+    if (myUpdateLocalVersions.isEmpty()) {
+      return;
+    }
+    List<LocalVersionUpdate> updates = new ArrayList<>(myUpdateLocalVersions);
+    myUpdateLocalVersions.clear();
+    myWorkspace.getServer().getVCS()
+      .updateLocalVersions(myWorkspace.getName(), myWorkspace.getOwnerName(), updates, myProject,
+                           TFSBundle.message("updating.local.version"));
   }
 
   private void processDeleteFile(final GetOperation operation) throws TfsException {
@@ -252,10 +308,10 @@ public class ApplyGetOperations {
       return;
     }
 
-    if (downloadFile(operation)) {
+    downloadFile(operation, () -> {
       updateLocalVersion(operation);
       addToGroup(FileGroup.CREATED_ID, target, operation);
-    }
+    });
   }
 
   private void processCreateFolder(final GetOperation operation) throws TfsException {
@@ -331,14 +387,22 @@ public class ApplyGetOperations {
     if (myDownloadMode == DownloadMode.FORCE || (myDownloadMode != DownloadMode.MERGE && operation.getLver() != operation.getSver())) {
       // remove source, create target
       // don't download file if undoing Add
-      if ((source.equals(target) || deleteFile(source)) && (change.contains(ChangeType_type0.Add) || downloadFile(operation))) {
-        updateLocalVersion(operation);
-        if (source.equals(target)) {
-          addToGroup(FileGroup.UPDATED_ID, target, operation);
+      if (source.equals(target) || deleteFile(source)) {
+        Runnable onApplied = () -> {
+          updateLocalVersion(operation);
+          if (source.equals(target)) {
+            addToGroup(FileGroup.UPDATED_ID, target, operation);
+          }
+          else {
+            addToGroup(FileGroup.REMOVED_FROM_REPOSITORY_ID, source, operation);
+            addToGroup(FileGroup.CREATED_ID, target, operation);
+          }
+        };
+        if (change.contains(ChangeType_type0.Add)) {
+          onApplied.run();
         }
         else {
-          addToGroup(FileGroup.REMOVED_FROM_REPOSITORY_ID, source, operation);
-          addToGroup(FileGroup.CREATED_ID, target, operation);
+          downloadFile(operation, onApplied);
         }
       }
       return;
@@ -356,10 +420,10 @@ public class ApplyGetOperations {
         // source & target not exist
         // don't create file if undoing locally missing scheduled for addition file
         if (!change.contains(ChangeType_type0.Add) || !source.equals(target) || operation.getLver() != operation.getSver()) {
-          if (downloadFile(operation)) {
+          downloadFile(operation, () -> {
             addToGroup(FileGroup.CREATED_ID, target, operation);
             updateLocalVersion(operation);
-          }
+          });
         }
       }
     }
@@ -511,37 +575,77 @@ public class ApplyGetOperations {
     }
   }
 
-  private boolean downloadFile(final GetOperation operation) throws TfsException {
+  /**
+   * @param onDownloaded called once the file is written, possibly later when the file is downloaded in background
+   */
+  private void downloadFile(final GetOperation operation, Runnable onDownloaded) throws TfsException {
     TFSVcs.assertTrue(operation.getDurl() != null,
                       "Null download url for " + VersionControlPath.localPathFromTfsRepresentation(operation.getTlocal()));
 
     if (myDownloadMode == DownloadMode.FORBID) {
-      return true;
+      onDownloaded.run();
+      return;
     }
 
     final File target = VersionControlPath.getFile(operation.getTlocal());
-    try {
-      TfsFileUtil.setFileContent(target, new TfsFileUtil.ContentWriter() {
-        @Override
-        public void write(final OutputStream outputStream) throws TfsException {
-          myWorkspace.getServer().getVCS()
-            .downloadItem(myProject, operation.getDurl(), outputStream, TFSBundle.message("downloading.0", target.getName()));
+    final byte[] hash = TfsUtil.getHash(operation.getHashValue());
+    if (hash != null) {
+      // the content may be already there, e.g. when switching between similar branches
+      if (hasContent(target, hash)) {
+        onDownloaded.run();
+        return;
+      }
+      File tempFile = copyFromContentCache(operation, target, hash);
+      if (tempFile != null) {
+        if (DownloadQueue.moveToTarget(tempFile, target, myErrors)) {
+          onDownloaded.run();
         }
-      });
-      if (!target.setReadOnly()) {
-        String errorMessage = MessageFormat.format("Cannot write to file ''{0}''", target.getPath());
-        myErrors.add(new VcsException(errorMessage));
-        return false;
+        return;
+      }
+    }
+
+    final String progressTitle = TFSBundle.message("downloading.0", target.getName());
+    if (myDownloads != null) {
+      myDownloads.add(target, operation.getDurl(), hash, progressTitle, onDownloaded);
+      return;
+    }
+    try {
+      File tempFile =
+        DownloadQueue.downloadToTempFile(myProject, myWorkspace.getServer().getVCS(), target, operation.getDurl(), hash, progressTitle);
+      if (DownloadQueue.moveToTarget(tempFile, target, myErrors)) {
+        onDownloaded.run();
       }
-      return true;
     }
     catch (IOException e) {
       String errorMessage = MessageFormat.format("Cannot write to file ''{0}'': {1}", target.getPath(), e.getMessage());
       myErrors.add(new VcsException(errorMessage));
+    }
+  }
+
+  private static boolean hasContent(File target, byte[] hash) {
+    try {
+      return target.isFile() && Arrays.equals(hash, TfsFileUtil.calculateMD5(target)) && target.setReadOnly();
+    }
+    catch (IOException e) {
       return false;
     }
   }
 
+  /**
+   * @return temporary file with the content of the operation's target version or null if it's not in the content cache
+   */
+  @Nullable
+  private File copyFromContentCache(GetOperation operation, File target, byte[] hash) {
+    try {
+      TFSContentStore store = TFSContentStoreFactory
+        .find(myWorkspace.getServer().getUri().toASCIIString(), operation.getItemid(), operation.getSver(), hash);
+      return store != null ? DownloadQueue.copyToTempFile(store, target, hash) : null;
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
   private boolean canOverrideLocalConflictingItem(final GetOperation operation, boolean sourceNotTarget) throws TfsException {
     if (myDownloadMode == DownloadMode.FORCE || myDownloadMode == DownloadMode.MERGE) {
       return true;
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs.operations;
+
+import com.intellij.concurrency.SensitiveProgressWrapper;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.ExceptionUtil;
+import com.intellij.util.io.DigestUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.tfsIntegration.core.revision.TFSContentStore;
+import org.jetbrains.tfsIntegration.core.tfs.TfsFileUtil;
+import org.jetbrains.tfsIntegration.core.tfs.VersionControlPath;
+import org.jetbrains.tfsIntegration.core.tfs.VersionControlServer;
+import org.jetbrains.tfsIntegration.exceptions.ConnectionFailedException;
+import org.jetbrains.tfsIntegration.exceptions.ConnectionTimeoutException;
+import org.jetbrains.tfsIntegration.exceptions.HostNotFoundException;
+import org.jetbrains.tfsIntegration.exceptions.TfsException;
+import org.jetbrains.tfsIntegration.webservice.TfsRequestManager;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads files in background into temporary files located next to the targets.
+ * Downloaded files are moved to the targets in the order they were added, by the thread that adds them.
+ * Downloads run under an indicator sensitive to the progress of that thread, so cancelling it stops the transfers.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class DownloadQueue {
+  private static final Logger LOG = Logger.getInstance(DownloadQueue.class.getName());
+
+  // downloads broken by connection failures and downloads not matching the expected hash are repeated up to this number of attempts
+  private static final int DOWNLOAD_ATTEMPTS = Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.downloadAttempts", 3));
+  // number of files downloaded simultaneously, 1 means files are downloaded one by one without the queue
+  private static final int PARALLEL_DOWNLOADS = Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.parallelDownloads", 4));
+  // downloaded files waiting to be moved to the targets take disk space, so don't run too far ahead
+  private static final int MAX_QUEUED_DOWNLOADS = PARALLEL_DOWNLOADS * 4;
+  private static final Executor ourDownloadsExecutor = TfsRequestManager.createTasksExecutor("TFS Downloads", PARALLEL_DOWNLOADS);
+
+  private static class Download {
+    private final File myTarget;
+    private final Runnable myOnDownloaded;
+    private Future<File> myFuture;
+    // guarded by this
+    private File myTempFile;
+    private boolean myCompleted;
+    private boolean myDiscarded;
+
+    private Download(File target, Runnable onDownloaded) {
+      myTarget = target;
+      myOnDownloaded = onDownloaded;
+    }
+  }
+
+  private final Project myProject;
+  private final VersionControlServer myServer;
+  private final ApplyProgress myProgress;
+  private final Collection<VcsException> myErrors;
+  private final Deque<Download> myDownloads = new ArrayDeque<>();
+  private final Set<String> myTargetKeys = new HashSet<>();
+  private final ProgressIndicator myDownloadsIndicator;
+
+  DownloadQueue(Project project, VersionControlServer server, ApplyProgress progress, Collection<VcsException> errors) {
+    myProject = project;
+    myServer = server;
+    myProgress = progress;
+    myErrors = errors;
+    ProgressIndicator pi = ProgressManager.getInstance().getProgressIndicator();
+    myDownloadsIndicator = new SensitiveProgressWrapper(pi != null ? pi : new EmptyProgressIndicator());
+  }
+
+  static boolean isEnabled() {
+    return PARALLEL_DOWNLOADS > 1 &&
+           TfsRequestManager.MAX_CONCURRENT_REQUESTS > 1 &&
+           !ApplicationManager.getApplication().isDispatchThread();
+  }
+
+  /**
+   * @param onDownloaded called once the file has been successfully written to the target
+   */
+  void add(@NotNull File target,
+           @NotNull String downloadKey,
+           @Nullable byte[] hash,
+           @NotNull String progressTitle,
+           @NotNull Runnable onDownloaded) throws TfsException {
+    while (myDownloads.size() >= MAX_QUEUED_DOWNLOADS) {
+      apply(myDownloads.peekFirst());
+    }
+
+    Download download = new Download(target, onDownloaded);
+    download.myFuture = TfsRequestManager.submit(() -> {
+      File tempFile = null;
+      try {
+        tempFile = downloadToTempFile(myProject, myServer, target, downloadKey, hash, progressTitle);
+        return tempFile;
+      }
+      finally {
+        synchronized (download) {
+          download.myCompleted = true;
+          download.myTempFile = tempFile;
+          if (download.myDiscarded && tempFile != null) {
+            FileUtil.delete(tempFile);
+          }
+        }
+      }
+    }, myDownloadsIndicator, ourDownloadsExecutor);
+    myDownloads.addLast(download);
+    myTargetKeys.add(VersionControlPath.getLocalPathKey(target.getPath()));
+  }
+
+  /**
+   * @return true if the file at given local path (in TFS representation) is going to be written by one of queued downloads
+   */
+  boolean isQueued(@Nullable String localPath) {
+    return localPath != null &&
+           !myTargetKeys.isEmpty() &&
+           myTargetKeys.contains(VersionControlPath.getLocalPathKey(VersionControlPath.localPathFromTfsRepresentation(localPath)));
+  }
+
+  /**
+   * Moves the files that are already downloaded to their targets, stops at the first download still in progress
+   */
+  void applyCompleted() throws TfsException {
+    while (!myDownloads.isEmpty() && myDownloads.peekFirst().myFuture.isDone()) {
+      apply(myDownloads.peekFirst());
+    }
+  }
+
+  /**
+   * Waits for all the queued downloads and moves them to their targets
+   */
+  void applyAll() throws TfsException {
+    while (!myDownloads.isEmpty()) {
+      apply(myDownloads.peekFirst());
+    }
+  }
+
+  /**
+   * Cancels queued downloads, stops the ones in progress and removes their temporary files
+   */
+  void discard() {
+    myDownloadsIndicator.cancel();
+    for (Download download : myDownloads) {
+      download.myFuture.cancel(false);
+      synchronized (download) {
+        download.myDiscarded = true;
+        if (download.myCompleted && download.myTempFile != null) {
+          FileUtil.delete(download.myTempFile);
+        }
+      }
+    }
+    myDownloads.clear();
+    myTargetKeys.clear();
+  }
+
+  private void apply(Download download) throws TfsException {
+    File tempFile = waitFor(download);
+    myDownloads.removeFirst();
+    myTargetKeys.remove(VersionControlPath.getLocalPathKey(download.myTarget.getPath()));
+    if (tempFile == null) {
+      return;
+    }
+
+    if (moveToTarget(tempFile, download.myTarget, myErrors)) {
+      download.myOnDownloaded.run();
+    }
+  }
+
+  /**
+   * Downloads the file into a temporary file next to the target, verifying the content against the hash while it is written.
+   * Downloads broken by connection failures and downloads not matching the hash are repeated,
+   * so that the target never gets partial content.
+   *
+   * @param hash expected MD5 hash of the content, if known
+   * @return the temporary file to be moved to the target with {@link #moveToTarget(File, File, Collection)}
+   */
+  @NotNull
+  static File downloadToTempFile(Project project,
+                                 @NotNull VersionControlServer server,
+                                 @NotNull File target,
+                                 @NotNull String downloadKey,
+                                 @Nullable byte[] hash,
+                                 @NotNull String progressTitle) throws TfsException, IOException {
+    for (int attempt = 1; ; attempt++) {
+      ProgressManager.checkCanceled();
+      File tempFile = FileUtil.createTempFile(target.getParentFile(), "." + target.getName(), ".download", true, false);
+      boolean success = false;
+      try {
+        MessageDigest digest = DigestUtil.md5();
+        TfsFileUtil.setFileContent(tempFile, outputStream -> {
+          OutputStream stream = new DigestOutputStream(new TfsFileUtil.CancellableOutputStream(outputStream), digest);
+          server.downloadItem(project, downloadKey, stream, progressTitle);
+        });
+        if (hash == null || Arrays.equals(hash, digest.digest())) {
+          success = true;
+          return tempFile;
+        }
+        if (attempt >= DOWNLOAD_ATTEMPTS) {
+          throw new IOException("downloaded content does not match its hash");
+        }
+        LOG.info("Downloaded content of " + target + " does not match its hash, retrying");
+      }
+      catch (TfsException e) {
+        if (attempt >= DOWNLOAD_ATTEMPTS || !isTransferFailure(e)) {
+          throw e;
+        }
+        LOG.info("Failed to download " + target + ", retrying", e);
+      }
+      finally {
+        if (!success) {
+          FileUtil.delete(tempFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if the download may succeed when repeated, other failures (cancelled login, missing rights or item) are not retried
+   */
+  private static boolean isTransferFailure(TfsException e) {
+    return e instanceof ConnectionFailedException || e instanceof ConnectionTimeoutException || e instanceof HostNotFoundException;
+  }
+
+  /**
+   * Copies the content saved before into a temporary file next to the target, verifying it against the hash
+   *
+   * @return the temporary file to be moved to the target with {@link #moveToTarget(File, File, Collection)},
+   * or null if the content does not match the hash
+   */
+  @Nullable
+  static File copyToTempFile(@NotNull TFSContentStore store, @NotNull File target, @NotNull byte[] hash) throws IOException {
+    File tempFile = FileUtil.createTempFile(target.getParentFile(), "." + target.getName(), ".download", true, false);
+    boolean success = false;
+    try {
+      MessageDigest digest = DigestUtil.md5();
+      try (InputStream in = store.openContent();
+           OutputStream out = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), digest)) {
+        FileUtil.copy(in, out);
+      }
+      success = Arrays.equals(hash, digest.digest());
+      return success ? tempFile : null;
+    }
+    finally {
+      if (!success) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+
+  /**
+   * Replaces the target with the downloaded temporary file and makes it read-only
+   *
+   * @return false if the target could not be written (the error is reported)
+   */
+  static boolean moveToTarget(@NotNull File tempFile, @NotNull File target, @NotNull Collection<VcsException> errors) {
+    try {
+      if (target.exists() && !target.canWrite()) {
+        FileUtil.setReadOnlyAttribute(target.getPath(), false);
+      }
+      Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (IOException e) {
+      FileUtil.delete(tempFile);
+      String errorMessage = MessageFormat.format("Cannot write to file ''{0}'': {1}", target.getPath(), e.getMessage());
+      errors.add(new VcsException(errorMessage));
+      return false;
+    }
+    if (!target.setReadOnly()) {
+      String errorMessage = MessageFormat.format("Cannot write to file ''{0}''", target.getPath());
+      errors.add(new VcsException(errorMessage));
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return downloaded temporary file or null if it could not be written (the error is reported)
+   */
+  @Nullable
+  private File waitFor(Download download) throws TfsException {
+    if (myProgress.isCancelled()) {
+      myDownloadsIndicator.cancel();
+      throw new ProcessCanceledException();
+    }
+    try {
+      return TfsRequestManager.waitFor(download.myFuture);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof TfsException) {
+        throw (TfsException)cause;
+      }
+      if (cause instanceof IOException) {
+        String errorMessage =
+          MessageFormat.format("Cannot write to file ''{0}'': {1}", download.myTarget.getPath(), cause.getMessage());
+        myErrors.add(new VcsException(errorMessage));
+        return null;
+      }
+      ExceptionUtil.rethrowUnchecked(cause);
+      throw new RuntimeException(cause);
+    }
+  }
+}
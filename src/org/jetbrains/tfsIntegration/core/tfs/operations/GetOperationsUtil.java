@@ -47,14 +47,4 @@ public class GetOperationsUtil {
     }
     return result;
   }
-
-  public static void updateSourcePaths(final List<? extends GetOperation> sortedOperations, final int index, final GetOperation operation) {
-    // TODO: replaceFirst to handle unix paths: problem if replace /a -> /aa in /a/a/a
-    for (GetOperation operationToUpdate : sortedOperations.subList(index + 1, sortedOperations.size())) {
-      if (operationToUpdate.getSlocal() != null) {
-        final String updated = operationToUpdate.getSlocal().replace(operation.getSlocal(), operation.getTlocal());
-        operationToUpdate.setSlocal(updated);
-      }
-    }
-  }
 }
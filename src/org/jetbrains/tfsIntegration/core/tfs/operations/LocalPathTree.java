@@ -0,0 +1,228 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs.operations;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.text.StringUtil;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.GetOperation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Source local paths of get operations (in TFS representation) kept as a tree of path components.
+ * Moving a folder re-parents its subtree, so source paths of all the operations under it change at once.
+ * Source paths of operations not under a moved folder are left as they are.
+ */
+class LocalPathTree {
+  private static class Node {
+    private String myName;
+    private Node myParent;
+    @Nullable private Map<String, Node> myChildren;
+    @Nullable private List<GetOperation> myOperations;
+    // target path of the last move of this node and the number of that move
+    @Nullable private String myMovedPath;
+    private int myMoveCount;
+
+    private Node(@Nullable Node parent, @NotNull String name) {
+      myParent = parent;
+      myName = name;
+    }
+
+    @Nullable
+    private Node getChild(String name) {
+      return myChildren != null ? myChildren.get(getKey(name)) : null;
+    }
+
+    private void addChild(Node child) {
+      if (myChildren == null) {
+        myChildren = new HashMap<>();
+      }
+      child.myParent = this;
+      myChildren.put(getKey(child.myName), child);
+    }
+
+    private void removeChild(Node child) {
+      if (myChildren != null) {
+        myChildren.remove(getKey(child.myName));
+      }
+    }
+
+    private void addOperation(GetOperation operation) {
+      if (myOperations == null) {
+        myOperations = new ArrayList<>(1);
+      }
+      myOperations.add(operation);
+    }
+  }
+
+  private final Node myRoot = new Node(null, "");
+  private final Map<GetOperation, Node> myOperationNodes = new IdentityHashMap<>();
+  private char mySeparator = '\\';
+  private int myMoveCount;
+
+  /**
+   * @param operations operations without source path are not included
+   */
+  LocalPathTree(@NotNull Collection<? extends GetOperation> operations) {
+    boolean separatorKnown = false;
+    for (GetOperation operation : operations) {
+      String path = operation.getSlocal();
+      if (path == null) {
+        continue;
+      }
+      if (!separatorKnown) {
+        mySeparator = path.indexOf('\\') != -1 ? '\\' : '/';
+        separatorKnown = true;
+      }
+      Node node = findNode(path, true);
+      node.addOperation(operation);
+      myOperationNodes.put(operation, node);
+    }
+  }
+
+  /**
+   * Updates source path of the operation according to the moves done so far
+   */
+  void updateSourcePath(@NotNull GetOperation operation) {
+    Node node = myOperationNodes.get(operation);
+    if (node == null) {
+      return;
+    }
+    // the latest move among the ancestors defines the path, names of the nodes below are appended to its target path
+    Node moved = null;
+    for (Node n = node; n != myRoot; n = n.myParent) {
+      if (n.myMovedPath != null && (moved == null || n.myMoveCount > moved.myMoveCount)) {
+        moved = n;
+      }
+    }
+    if (moved != null) {
+      operation.setSlocal(getPath(moved, node));
+    }
+  }
+
+  /**
+   * Moves the item at source path along with the items under it to target path
+   */
+  void move(@NotNull String sourcePath, @NotNull String targetPath) {
+    Node node = findNode(sourcePath, false);
+    if (node == null || node == myRoot) {
+      return;
+    }
+    List<String> targetComponents = split(targetPath);
+    Node targetParent = myRoot;
+    for (String name : targetComponents.subList(0, targetComponents.size() - 1)) {
+      targetParent = getOrCreateChild(targetParent, name);
+    }
+    for (Node n = targetParent; n != null; n = n.myParent) {
+      if (n == node) {
+        // can't move a folder under itself
+        return;
+      }
+    }
+
+    node.myParent.removeChild(node);
+    String targetName = targetComponents.get(targetComponents.size() - 1);
+    Node existing = targetParent.getChild(targetName);
+    if (existing != null) {
+      merge(node, existing);
+      node = existing;
+    }
+    else {
+      node.myName = targetName;
+      targetParent.addChild(node);
+    }
+    node.myMovedPath = targetPath;
+    node.myMoveCount = ++myMoveCount;
+  }
+
+  private void merge(Node source, Node target) {
+    if (source.myOperations != null) {
+      for (GetOperation operation : source.myOperations) {
+        target.addOperation(operation);
+        myOperationNodes.put(operation, target);
+      }
+    }
+    if (source.myChildren != null) {
+      for (Node child : source.myChildren.values()) {
+        Node existing = target.getChild(child.myName);
+        if (existing != null) {
+          merge(child, existing);
+        }
+        else {
+          target.addChild(child);
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private Node findNode(String path, boolean create) {
+    Node node = myRoot;
+    for (String name : split(path)) {
+      Node child = create ? getOrCreateChild(node, name) : node.getChild(name);
+      if (child == null) {
+        return null;
+      }
+      node = child;
+    }
+    return node;
+  }
+
+  private static Node getOrCreateChild(Node parent, String name) {
+    Node child = parent.getChild(name);
+    if (child == null) {
+      child = new Node(parent, name);
+      parent.addChild(child);
+    }
+    return child;
+  }
+
+  private String getPath(Node ancestor, Node node) {
+    List<String> names = new ArrayList<>();
+    for (Node n = node; n != ancestor; n = n.myParent) {
+      names.add(n.myName);
+    }
+    StringBuilder result = new StringBuilder(ancestor.myMovedPath);
+    for (int i = names.size() - 1; i >= 0; i--) {
+      result.append(mySeparator).append(names.get(i));
+    }
+    return result.toString();
+  }
+
+  /**
+   * @return path components, the first one is empty for paths starting with a separator
+   */
+  private static List<String> split(String path) {
+    List<String> result = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i <= path.length(); i++) {
+      if (i == path.length() || path.charAt(i) == '\\' || path.charAt(i) == '/') {
+        if (i > start || result.isEmpty()) {
+          result.add(path.substring(start, i));
+        }
+        start = i + 1;
+      }
+    }
+    return result;
+  }
+
+  private static String getKey(String name) {
+    return SystemInfo.isFileSystemCaseSensitive ? name : StringUtil.toLowerCase(name);
+  }
+}
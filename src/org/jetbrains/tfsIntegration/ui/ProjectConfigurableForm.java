@@ -30,6 +30,7 @@ public class ProjectConfigurableForm {
   private final Project myProject;
   private JComponent myContentPane;
   private JCheckBox myUseIdeaHttpProxyCheckBox;
+  private JCheckBox myAutoMergeCheckBox;
   private JCheckBox myTFSCheckBox;
   private JCheckBox myStatefulCheckBox;
   private JCheckBox myReportNotInstalledPoliciesCheckBox;
@@ -90,6 +91,14 @@ public class ProjectConfigurableForm {
     myUseIdeaHttpProxyCheckBox.setSelected(value);
   }
 
+  public boolean autoMergeConflicts() {
+    return myAutoMergeCheckBox.isSelected();
+  }
+
+  public void setAutoMergeConflicts(boolean value) {
+    myAutoMergeCheckBox.setSelected(value);
+  }
+
   public boolean supportTfsCheckinPolicies() {
     return myTFSCheckBox.isSelected();
   }
@@ -1,21 +1,26 @@
 package org.jetbrains.tfsIntegration.webservice;
 
+import com.intellij.concurrency.SensitiveProgressWrapper;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
-import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.ClassLoaderUtil;
 import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.util.ExceptionUtil;
 import com.intellij.util.WaitForProgressToShow;
-import com.intellij.util.concurrency.Semaphore;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.apache.commons.httpclient.HttpStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.tfsIntegration.config.TfsServerConnectionHelper;
 import org.jetbrains.tfsIntegration.core.TFSBundle;
+import org.jetbrains.tfsIntegration.core.TfsBeansHolder;
 import org.jetbrains.tfsIntegration.core.configuration.Credentials;
 import org.jetbrains.tfsIntegration.core.configuration.TFSConfigurationManager;
 import org.jetbrains.tfsIntegration.exceptions.*;
@@ -23,8 +28,20 @@ import org.jetbrains.tfsIntegration.ui.TfsLoginDialog;
 
 import javax.swing.*;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class TfsRequestManager {
@@ -57,10 +74,22 @@ public class TfsRequestManager {
   // shared lock to avoid showing login dialog for several servers at the same time
   private static final ReentrantLock ourShowDialogLock = new ReentrantLock();
 
-  // Don't make several requests to the same server simultaneously.
+  // Limit the number of requests made to the same server simultaneously, 1 means requests are executed one by one.
   // Indeed, this way we don't protect from simultaneous request to the existing server when trying to add it as a new one
-  // (finally and getting 'duplicate server' error), but I believe it won't hurt
-  private final ReentrantLock myRequestLock = new ReentrantLock();
+  // (finally and getting 'duplicate server' error), but I believe it won't hurt.
+  // The same limit applies to the number of tasks run in background, see submit() and invokeAll(),
+  // features limit their own tasks further with properties of their own
+  public static final int MAX_CONCURRENT_REQUESTS =
+    Math.max(1, Integer.getInteger("org.jetbrains.tfsIntegration.maxConcurrentRequests", 4));
+  private static final long WAIT_MS = 100;
+  private static final ExecutorService ourTasksExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("TFS Requests", MAX_CONCURRENT_REQUESTS);
+
+  private final Semaphore myRequestPermits = new Semaphore(MAX_CONCURRENT_REQUESTS, true);
+  // set while the thread holds a permit, so that nested requests don't wait for another one
+  private final ThreadLocal<Boolean> myHoldsRequestPermit = new ThreadLocal<>();
+  // credentials last entered in the login dialog, guarded by ourShowDialogLock
+  @Nullable private Credentials myEnteredCredentials;
 
   private TfsRequestManager(@Nullable URI serverUri) {
     myServerUri = serverUri;
@@ -89,12 +118,20 @@ public class TfsRequestManager {
     boolean showDialog = shouldShowDialog(force);
     final Ref<String> message = new Ref<>();
     final Ref<Credentials> credentials = new Ref<>(TFSConfigurationManager.getInstance().getCredentials(myServerUri));
+    Credentials rejectedCredentials = null;
 
     while (true) {
       if (showDialog || !message.isNull()) {
         try {
           ourShowDialogLock.lock();
           ProgressManager.checkCanceled();
+          if (!message.isNull() && myEnteredCredentials != null && myEnteredCredentials != rejectedCredentials) {
+            // another thread has asked for credentials since the request was rejected, retry with them
+            credentials.set(myEnteredCredentials);
+            message.set(null);
+            showDialog = false;
+            continue;
+          }
           showDialog = shouldShowDialog(force); // check again since another thread could already enter right credentials
           // TODO we probably have to compare original password and current one
           if (!message.isNull() || showDialog) {
@@ -140,6 +177,7 @@ public class TfsRequestManager {
               }
               throw new AuthCancelledException(myServerUri);
             }
+            myEnteredCredentials = credentials.get();
           }
           else {
             credentials.set(TFSConfigurationManager.getInstance().getCredentials(myServerUri));
@@ -150,19 +188,24 @@ public class TfsRequestManager {
         }
       }
       LOG.assertTrue(!credentials.isNull());
+      ProgressIndicator pi = ProgressManager.getInstance().getProgressIndicator();
+      boolean permitAcquired = acquireRequestPermit(pi);
+      Credentials sentCredentials = credentials.get();
       try {
-        myRequestLock.lock();
         ProgressManager.checkCanceled();
-        ProgressIndicator pi = ProgressManager.getInstance().getProgressIndicator();
         T result = executeRequestImpl(myServerUri, credentials, request, pi);
         TFSConfigurationManager.getInstance().storeCredentials(myServerUri, credentials.get());
         return result;
       }
+      catch (ProcessCanceledException e) {
+        throw e;
+      }
       catch (Exception e) {
         final TfsException tfsException = TfsExceptionManager.processException(e);
         LOG.warn(tfsException);
         if (tfsException instanceof UnauthorizedException) {
           message.set(getMessage(tfsException, credentials.get().getType()));
+          rejectedCredentials = sentCredentials;
           continue;
         }
         else if (!(tfsException instanceof ConnectionFailedException)) {
@@ -171,11 +214,191 @@ public class TfsRequestManager {
         throw tfsException;
       }
       finally {
-        myRequestLock.unlock();
+        if (permitAcquired) {
+          releaseRequestPermit();
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits until the number of requests being executed to the server drops below the limit, checking for cancellation meanwhile.
+   * A thread that already holds a permit (request issued while executing another one) goes on without waiting.
+   *
+   * @return true if the permit is acquired and has to be released by {@link #releaseRequestPermit()}
+   */
+  private boolean acquireRequestPermit(@Nullable ProgressIndicator pi) {
+    if (myHoldsRequestPermit.get() != null) {
+      return false;
+    }
+    try {
+      while (!myRequestPermits.tryAcquire(WAIT_MS, TimeUnit.MILLISECONDS)) {
+        if (pi != null) {
+          pi.checkCanceled();
+        }
+        else {
+          ProgressManager.checkCanceled();
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    }
+    myHoldsRequestPermit.set(Boolean.TRUE);
+    return true;
+  }
+
+  private void releaseRequestPermit() {
+    myHoldsRequestPermit.remove();
+    myRequestPermits.release();
+  }
+
+  /**
+   * @return executor that runs not more than given number of tasks at a time, to be passed to {@link #submit}.
+   * Its tasks are run by the shared executor, so they count towards {@link #MAX_CONCURRENT_REQUESTS} as well.
+   */
+  @NotNull
+  public static Executor createTasksExecutor(@NotNull String name, int parallelism) {
+    return parallelism < MAX_CONCURRENT_REQUESTS
+           ? AppExecutorUtil.createBoundedApplicationPoolExecutor(name, ourTasksExecutor, Math.max(1, parallelism))
+           : ourTasksExecutor;
+  }
+
+  /**
+   * Starts the task in background, not more than {@link #MAX_CONCURRENT_REQUESTS} tasks run at a time.
+   * The task runs under the indicator, so cancelling the indicator cancels the task.
+   */
+  @NotNull
+  public static <T> Future<T> submit(@NotNull ThrowableComputable<T, ? extends Exception> task, @NotNull ProgressIndicator indicator) {
+    return submit(task, indicator, ourTasksExecutor);
+  }
+
+  /**
+   * @param executor one created by {@link #createTasksExecutor}
+   */
+  @NotNull
+  public static <T> Future<T> submit(@NotNull ThrowableComputable<T, ? extends Exception> task,
+                                     @NotNull ProgressIndicator indicator,
+                                     @NotNull Executor executor) {
+    FutureTask<T> future = new FutureTask<>(() -> {
+      Ref<T> result = new Ref<>();
+      Ref<Exception> error = new Ref<>();
+      ProgressManager.getInstance().executeProcessUnderProgress(() -> {
+        try {
+          result.set(task.compute());
+        }
+        catch (Exception e) {
+          error.set(e);
+        }
+      }, indicator);
+      if (!error.isNull()) {
+        throw error.get();
+      }
+      return result.get();
+    });
+    executor.execute(future);
+    return future;
+  }
+
+  /**
+   * Waits for the task submitted by {@link #submit}, checking for cancellation of the current progress meanwhile.
+   * A task that has not started yet is run by the current thread, so that tasks waiting for each other can't exhaust the executor.
+   */
+  public static <T> T waitFor(@NotNull Future<T> future) throws ExecutionException {
+    if (future instanceof RunnableFuture && !future.isDone()) {
+      // does nothing if the task is already running or completed
+      ((RunnableFuture<T>)future).run();
+    }
+    while (true) {
+      ProgressManager.checkCanceled();
+      try {
+        return future.get(WAIT_MS, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException ignored) {
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ProcessCanceledException(e);
       }
     }
   }
 
+  /**
+   * Runs the tasks concurrently (but not more than {@link #MAX_CONCURRENT_REQUESTS} at a time), see {@link #invokeAll(List, int)}
+   */
+  public static <T, E extends Exception> List<T> invokeAll(@NotNull List<? extends ThrowableComputable<T, E>> tasks) throws E {
+    return invokeAll(tasks, MAX_CONCURRENT_REQUESTS);
+  }
+
+  /**
+   * Runs the tasks concurrently, but not more than given number (and {@link #MAX_CONCURRENT_REQUESTS}) at a time. The first failed task
+   * cancels the rest, as well as cancellation of the current progress does. The tasks are run one by one by the current thread if there
+   * is only one, concurrent requests are turned off or it is the dispatch thread.
+   *
+   * @return results of the tasks in the order of tasks
+   */
+  public static <T, E extends Exception> List<T> invokeAll(@NotNull List<? extends ThrowableComputable<T, E>> tasks, int parallelism)
+    throws E {
+    List<T> results = new ArrayList<>(tasks.size());
+    if (tasks.size() < 2 || parallelism < 2 || MAX_CONCURRENT_REQUESTS == 1 || ApplicationManager.getApplication().isDispatchThread()) {
+      for (ThrowableComputable<T, E> task : tasks) {
+        results.add(task.compute());
+      }
+      return results;
+    }
+
+    ProgressIndicator callerIndicator = ProgressManager.getInstance().getProgressIndicator();
+    final ProgressIndicator tasksIndicator =
+      new SensitiveProgressWrapper(callerIndicator != null ? callerIndicator : new EmptyProgressIndicator());
+    final AtomicReference<Exception> firstError = new AtomicReference<>();
+    final Executor executor = createTasksExecutor("TFS Tasks", parallelism);
+    List<Future<T>> futures = new ArrayList<>(tasks.size());
+    try {
+      for (final ThrowableComputable<T, E> task : tasks) {
+        futures.add(submit(() -> {
+          try {
+            return task.compute();
+          }
+          catch (Exception e) {
+            if (firstError.compareAndSet(null, e)) {
+              tasksIndicator.cancel();
+            }
+            throw e;
+          }
+        }, tasksIndicator, executor));
+      }
+      for (Future<T> future : futures) {
+        try {
+          results.add(waitFor(future));
+        }
+        catch (ExecutionException e) {
+          if (firstError.get() == null) {
+            ExceptionUtil.rethrowUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+          }
+          break;
+        }
+      }
+    }
+    finally {
+      tasksIndicator.cancel();
+      for (Future<T> future : futures) {
+        future.cancel(false);
+      }
+    }
+
+    Exception error = firstError.get();
+    if (error instanceof RuntimeException) {
+      throw (RuntimeException)error;
+    }
+    else if (error != null) {
+      //noinspection unchecked
+      throw (E)error;
+    }
+    return results;
+  }
+
   private class ExecuteSession<T> implements Runnable {
     private final Ref<Credentials> myCredentials;
     private final Object myProjectOrComponent;
@@ -206,26 +429,42 @@ public class TfsRequestManager {
     @Override
     public void run() {
       ProgressIndicator pi = ProgressManager.getInstance().getProgressIndicator();
-      Semaphore done = new Semaphore();
-
       pi.setIndeterminate(true);
-      done.down();
 
-      ApplicationManager.getApplication().executeOnPooledThread(() -> {
+      Future<?> done = ApplicationManager.getApplication().executeOnPooledThread(() -> {
         try {
-          myRequestLock.lock();
-          myResult = executeRequestImpl(myCurrentServerUri, myCredentials, myRequest, pi);
+          boolean permitAcquired = acquireRequestPermit(pi);
+          try {
+            myResult = executeRequestImpl(myCurrentServerUri, myCredentials, myRequest, pi);
+          }
+          finally {
+            if (permitAcquired) {
+              releaseRequestPermit();
+            }
+          }
         }
         catch (Exception e) {
           LOG.warn(e);
           myError = TfsExceptionManager.processException(e);
         }
-        finally {
-          myRequestLock.unlock();
-          done.up();
-        }
       });
-      ProgressIndicatorUtils.awaitWithCheckCanceled(done, pi);
+      while (true) {
+        pi.checkCanceled();
+        try {
+          done.get(WAIT_MS, TimeUnit.MILLISECONDS);
+          return;
+        }
+        catch (TimeoutException ignored) {
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ProcessCanceledException(e);
+        }
+        catch (ExecutionException e) {
+          // exceptions are caught by the task
+          throw new RuntimeException(e.getCause());
+        }
+      }
     }
 
     /**
@@ -399,7 +638,7 @@ public class TfsRequestManager {
                                           final Ref<Credentials> credentialsRef,
                                           final Request<T> request,
                                           final ProgressIndicator pi) throws Exception {
-    return ClassLoaderUtil.computeWithClassLoader(TfsRequestManager.class.getClassLoader(), () -> {
+    return ClassLoaderUtil.computeWithClassLoader(TfsRequestManager.class.getClassLoader(), () -> TfsBeansHolder.runRequest(() -> {
       Credentials credentials = credentialsRef.get();
       boolean needsAuthentication =
         credentials == null ||
@@ -410,6 +649,6 @@ public class TfsRequestManager {
         credentialsRef.set(descriptor.authorizedCredentials);
       }
       return request.execute(credentialsRef.get(), serverUri, pi);
-    });
+    }));
   }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core;
+
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.vcsUtil.VcsUtil;
+
+import java.io.*;
+import java.util.*;
+
+public class TFSChangeListTest extends LightPlatformTestCase {
+
+  private static FilePath file(String path) {
+    return VcsUtil.getFilePath(path, false);
+  }
+
+  private static FilePath dir(String path) {
+    return VcsUtil.getFilePath(path, true);
+  }
+
+  public void testPathsRoundTrip() throws IOException {
+    Map<FilePath, Integer> modified = new HashMap<>();
+    modified.put(file("/project/src/Main.java"), 10);
+    modified.put(file("/project/src/MainTest.java"), 11);
+    Set<FilePath> added = new HashSet<>();
+    added.add(dir("/project/src/util"));
+    added.add(file("/project/src/util/Util.java"));
+    Map<FilePath, Integer> deleted = new HashMap<>();
+    deleted.put(file("/project/src/Old.java"), 7);
+    // a directory and a file with the same path are different items
+    deleted.put(dir("/project/src/Main.java"), 8);
+    Map<FilePath, Pair<FilePath, Integer>> moved = new HashMap<>();
+    moved.put(file("/project/src/A.java"), Pair.create(file("/project/src/B.java"), 5));
+    moved.put(dir("/project/lib"), Pair.create(dir("/project/libs"), 6));
+
+    byte[] encoded = TFSChangeList.encodePaths(modified, added, deleted, moved);
+
+    Map<FilePath, Integer> decodedModified = new HashMap<>();
+    Set<FilePath> decodedAdded = new HashSet<>();
+    Map<FilePath, Integer> decodedDeleted = new HashMap<>();
+    Map<FilePath, Pair<FilePath, Integer>> decodedMoved = new HashMap<>();
+    TFSChangeList.decodePaths(encoded, decodedModified, decodedAdded, decodedDeleted, decodedMoved);
+
+    assertEquals(modified, decodedModified);
+    assertEquals(added, decodedAdded);
+    assertEquals(deleted, decodedDeleted);
+    assertEquals(moved, decodedMoved);
+    for (FilePath path : decodedDeleted.keySet()) {
+      assertEquals(path.getPath().endsWith("Main.java"), path.isDirectory());
+    }
+  }
+
+  public void testWrittenAsRead() throws IOException {
+    Map<FilePath, Integer> modified = Collections.singletonMap(file("/project/a.txt"), 3);
+    byte[] encodedPaths = TFSChangeList.encodePaths(modified, Collections.emptySet(), Collections.emptyMap(), Collections.emptyMap());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF("http://server:8080/tfs");
+    out.writeUTF("workspace");
+    DataInputOutputUtil.writeINT(out, 42);
+    out.writeUTF("author");
+    DataInputOutputUtil.writeLONG(out, 1000L);
+    out.writeUTF("comment");
+    DataInputOutputUtil.writeINT(out, encodedPaths.length);
+    out.write(encodedPaths);
+    out.flush();
+
+    TFSChangeList changeList = new TFSChangeList(null, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(42, changeList.getNumber());
+    assertEquals("author", changeList.getCommitterName());
+    assertEquals(1000L, changeList.getCommitDate().getTime());
+    assertEquals("comment", changeList.getComment());
+
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    DataOutputStream writtenOut = new DataOutputStream(written);
+    changeList.writeToStream(writtenOut);
+    writtenOut.flush();
+    assertTrue(Arrays.equals(bytes.toByteArray(), written.toByteArray()));
+  }
+}
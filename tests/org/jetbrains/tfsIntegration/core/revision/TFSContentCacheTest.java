@@ -0,0 +1,141 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.revision;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.DigestUtil;
+import junit.framework.TestCase;
+import org.jetbrains.tfsIntegration.core.tfs.TfsFileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class TFSContentCacheTest extends TestCase {
+
+  private static final String SERVER = "http://server:8080/tfs";
+
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("tfsContentCache", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  private static TfsFileUtil.ContentWriter writer(String content) {
+    return stream -> {
+      try {
+        stream.write(content.getBytes(StandardCharsets.UTF_8));
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    };
+  }
+
+  private static byte[] hash(String content) {
+    return DigestUtil.md5().digest(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String load(TFSContentStore store) throws Exception {
+    return new String(store.loadContent(), StandardCharsets.UTF_8);
+  }
+
+  private int contentFilesCount() {
+    File[] files = myDir.listFiles((dir, name) -> !"index".equals(name));
+    return files != null ? files.length : 0;
+  }
+
+  public void testSameContentStoredOnce() throws Exception {
+    TFSContentCache cache = new TFSContentCache(myDir, 1024);
+    cache.create(SERVER, 1, 10, null).saveContent(writer("content"));
+    cache.create(SERVER, 2, 20, hash("content")).saveContent(writer("content"));
+    assertEquals(1, contentFilesCount());
+
+    // found by hash for a revision that was never saved
+    assertNull(cache.find(SERVER, 3, 30));
+    TFSContentStore store = cache.find(SERVER, 3, 30, hash("content"));
+    assertNotNull(store);
+    assertEquals("content", load(store));
+    assertNotNull(cache.find(SERVER, 3, 30));
+  }
+
+  public void testContentNotMatchingHashIsRejected() throws Exception {
+    TFSContentCache cache = new TFSContentCache(myDir, 1024);
+    try {
+      cache.create(SERVER, 1, 10, hash("expected")).saveContent(writer("truncated"));
+      fail("Mismatched content saved");
+    }
+    catch (IOException ignored) {
+    }
+    assertNull(cache.find(SERVER, 1, 10));
+    assertNull(cache.find(SERVER, 2, 20, hash("truncated")));
+    assertEquals(0, contentFilesCount());
+  }
+
+  public void testLeastRecentlyUsedEvicted() throws Exception {
+    TFSContentCache cache = new TFSContentCache(myDir, 10);
+    cache.create(SERVER, 1, 10, null).saveContent(writer("aaaa"));
+    cache.create(SERVER, 2, 20, null).saveContent(writer("bbbb"));
+    assertNotNull(cache.find(SERVER, 1, 10));
+
+    cache.create(SERVER, 3, 30, null).saveContent(writer("cccc"));
+    assertNotNull(cache.find(SERVER, 1, 10));
+    assertNull(cache.find(SERVER, 2, 20));
+    assertNotNull(cache.find(SERVER, 3, 30));
+    assertEquals(2, contentFilesCount());
+  }
+
+  public void testIndexReloaded() throws Exception {
+    TFSContentCache cache = new TFSContentCache(myDir, 1024);
+    cache.create(SERVER, 1, 10, null).saveContent(writer("first"));
+    cache.create(SERVER, 2, 20, null).saveContent(writer("second"));
+    cache.saveIndexIfModified();
+
+    TFSContentCache reloaded = new TFSContentCache(myDir, 1024);
+    TFSContentStore store = reloaded.find(SERVER, 1, 10);
+    assertNotNull(store);
+    assertEquals("first", load(store));
+    store = reloaded.find(SERVER, 2, 20);
+    assertNotNull(store);
+    assertEquals("second", load(store));
+  }
+
+  public void testUnknownFilesRemovedOnStart() throws Exception {
+    TFSContentCache cache = new TFSContentCache(myDir, 1024);
+    cache.create(SERVER, 1, 10, null).saveContent(writer("indexed"));
+    cache.saveIndexIfModified();
+    File unknown = new File(myDir, "unknown");
+    FileUtil.writeToFile(unknown, "unknown");
+    File temp = new File(myDir, "content.tmp");
+    FileUtil.writeToFile(temp, "temp");
+
+    TFSContentCache reloaded = new TFSContentCache(myDir, 1024);
+    assertFalse(unknown.exists());
+    assertFalse(temp.exists());
+    assertNotNull(reloaded.find(SERVER, 1, 10));
+    assertTrue(Arrays.asList(myDir.list()).contains("index"));
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.vcsUtil.VcsUtil;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class WorkingFoldersIndexTest extends LightPlatformTestCase {
+
+  private static final String ROOT = SystemInfo.isWindows ? "C:\\workspace" : "/workspace";
+
+  private static FilePath localPath(String relativePath) {
+    return VcsUtil.getFilePath(ROOT + "/" + relativePath, true);
+  }
+
+  private static WorkingFolderInfo mapping(String relativePath, String serverPath) {
+    return new WorkingFolderInfo(WorkingFolderInfo.Status.Active, localPath(relativePath), serverPath);
+  }
+
+  public void testNestedMappingsAndCloakedFolder() {
+    WorkingFolderInfo parent = mapping("a", "$/Project/a");
+    WorkingFolderInfo nested = mapping("a/b/c", "$/Project/other");
+    WorkingFolderInfo cloaked = new WorkingFolderInfo(WorkingFolderInfo.Status.Cloaked, localPath("a/b/cloaked"), "$/Project/a/b/cloaked");
+    WorkingFoldersIndex index = new WorkingFoldersIndex(Arrays.asList(parent, nested, cloaked));
+
+    assertSame(parent, index.findNearestParentMapping(localPath("a")));
+    assertSame(parent, index.findNearestParentMapping(localPath("a/b/file.txt")));
+    assertSame(nested, index.findNearestParentMapping(localPath("a/b/c/d/file.txt")));
+    assertSame(cloaked, index.findNearestParentMapping(localPath("a/b/cloaked/file.txt")));
+    assertNull(index.findNearestParentMapping(localPath("file.txt")));
+
+    assertSame(parent, index.findNearestParentMapping("$/Project/a/b/file.txt"));
+    assertSame(nested, index.findNearestParentMapping("$/Project/other/file.txt"));
+    assertSame(cloaked, index.findNearestParentMapping("$/Project/a/b/cloaked/file.txt"));
+    assertNull(index.findNearestParentMapping("$/Project/file.txt"));
+
+    assertEquals(Arrays.asList(parent, nested, cloaked), index.findChildMappings(localPath("a")));
+    assertEquals(Arrays.asList(nested, cloaked), index.findChildMappings(localPath("a/b")));
+  }
+
+  public void testSiblingPrefixes() {
+    WorkingFolderInfo a = mapping("a", "$/Project/a");
+    WorkingFoldersIndex index = new WorkingFoldersIndex(Collections.singletonList(a));
+
+    assertNull(index.findNearestParentMapping(localPath("ab/file.txt")));
+    assertNull(index.findNearestParentMapping("$/Project/ab/file.txt"));
+    assertFalse(index.hasMapping(localPath("ab"), true));
+    assertTrue(index.hasMapping(localPath("a/b"), false));
+
+    WorkingFolderInfo ab = mapping("ab", "$/Project/ab");
+    index = new WorkingFoldersIndex(Arrays.asList(a, ab));
+    assertEquals(Collections.singletonList(a), index.findChildMappings(localPath("a")));
+    assertSame(ab, index.findNearestParentMapping(localPath("ab/file.txt")));
+    assertSame(a, index.findNearestParentMapping("$/Project/a/file.txt"));
+  }
+
+  public void testParentOfMappings() {
+    WorkingFolderInfo a = mapping("a", "$/Project/a");
+    WorkingFolderInfo b = mapping("b", "$/Project/b");
+    WorkingFoldersIndex index = new WorkingFoldersIndex(Arrays.asList(b, a));
+
+    assertFalse(index.hasMapping(localPath(""), false));
+    assertTrue(index.hasMapping(localPath(""), true));
+    assertNull(index.findNearestParentMapping(localPath("")));
+    // in the order of the workspace working folders
+    assertEquals(Arrays.asList(b, a), index.findChildMappings(localPath("")));
+  }
+
+  public void testCaseInsensitiveKeys() {
+    WorkingFolderInfo a = mapping("Folder", "$/Project/Folder");
+    WorkingFoldersIndex index = new WorkingFoldersIndex(Collections.singletonList(a));
+
+    // server paths are case insensitive, local ones follow the file system
+    assertSame(a, index.findNearestParentMapping("$/PROJECT/folder/file.txt"));
+    assertEquals(!SystemInfo.isFileSystemCaseSensitive, index.findNearestParentMapping(localPath("FOLDER/file.txt")) != null);
+  }
+
+  public void testInvalidatedOnMappingChange() {
+    WorkingFolderInfo a = mapping("a", "$/Project/a");
+    WorkingFoldersIndex index = new WorkingFoldersIndex(Collections.singletonList(a));
+    assertTrue(index.isUpToDate());
+    a.setServerPath("$/Project/renamed");
+    assertFalse(index.isUpToDate());
+
+    WorkspaceInfo workspace = new WorkspaceInfo(new ServerInfo(URI.create("http://server:8080/tfs"), "guid", null), "owner", "computer");
+    workspace.addWorkingFolderInfo(mapping("x", "$/Project/x"));
+    assertTrue(workspace.hasMappingCached(localPath("x/file.txt"), false));
+    assertFalse(workspace.hasMappingCached(localPath("y/file.txt"), false));
+    workspace.addWorkingFolderInfo(mapping("y", "$/Project/y"));
+    assertTrue(workspace.hasMappingCached(localPath("y/file.txt"), false));
+  }
+}
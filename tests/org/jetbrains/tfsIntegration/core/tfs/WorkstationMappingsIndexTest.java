@@ -0,0 +1,128 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.vcsUtil.VcsUtil;
+
+import java.net.URI;
+import java.util.*;
+
+public class WorkstationMappingsIndexTest extends LightPlatformTestCase {
+
+  private static final String ROOT = SystemInfo.isWindows ? "C:\\workspace" : "/workspace";
+
+  private static class TestWorkspace extends WorkspaceInfo {
+    private final boolean myCurrentOwner;
+
+    private TestWorkspace(ServerInfo server, boolean currentOwner) {
+      super(server, "owner", "computer");
+      myCurrentOwner = currentOwner;
+    }
+
+    @Override
+    boolean hasCurrentOwnerAndComputer() {
+      return myCurrentOwner;
+    }
+  }
+
+  private static FilePath localPath(String relativePath) {
+    return VcsUtil.getFilePath(ROOT + "/" + relativePath, true);
+  }
+
+  private static ServerInfo server(String uri) {
+    return new ServerInfo(URI.create(uri), uri, null);
+  }
+
+  private static WorkspaceInfo workspace(ServerInfo server, boolean currentOwner, String... relativePaths) {
+    WorkspaceInfo workspace = new TestWorkspace(server, currentOwner);
+    for (String relativePath : relativePaths) {
+      workspace.addWorkingFolderInfo(new WorkingFolderInfo(WorkingFolderInfo.Status.Active, localPath(relativePath), "$/Project"));
+    }
+    server.addWorkspaceInfo(workspace);
+    return workspace;
+  }
+
+  public void testNestedMappings() {
+    ServerInfo server = server("http://server:8080/tfs");
+    WorkspaceInfo parent = workspace(server, true, "a");
+    WorkspaceInfo nested = workspace(server, true, "a/b");
+    WorkstationMappingsIndex index = new WorkstationMappingsIndex(Collections.singletonList(server));
+
+    assertEquals(Collections.singletonList(parent), new ArrayList<>(index.findWorkspaces(localPath("a/b/file.txt"), false)));
+    assertEquals(Arrays.asList(parent, nested), new ArrayList<>(index.findWorkspaces(localPath("a/b/file.txt"), true)));
+    assertEquals(Arrays.asList(parent, nested), new ArrayList<>(index.findWorkspaces(localPath(""), true)));
+    assertTrue(index.findWorkspaces(localPath(""), false).isEmpty());
+  }
+
+  public void testSiblingPrefixes() {
+    ServerInfo server = server("http://server:8080/tfs");
+    WorkspaceInfo a = workspace(server, true, "a");
+    WorkspaceInfo ab = workspace(server, true, "ab");
+    WorkstationMappingsIndex index = new WorkstationMappingsIndex(Collections.singletonList(server));
+
+    assertEquals(Collections.singletonList(a), new ArrayList<>(index.findWorkspaces(localPath("a"), true)));
+    assertEquals(Collections.singletonList(ab), new ArrayList<>(index.findWorkspaces(localPath("ab/file.txt"), true)));
+    assertTrue(index.findWorkspaces(localPath("abc"), true).isEmpty());
+  }
+
+  public void testOtherOwnerSkipped() {
+    ServerInfo server = server("http://server:8080/tfs");
+    workspace(server, false, "a");
+    WorkspaceInfo own = workspace(server, true, "a/b");
+    WorkstationMappingsIndex index = new WorkstationMappingsIndex(Collections.singletonList(server));
+
+    assertTrue(index.findWorkspaces(localPath("a/file.txt"), false).isEmpty());
+    assertEquals(Collections.singletonList(own), new ArrayList<>(index.findWorkspaces(localPath("a/b/file.txt"), false)));
+  }
+
+  public void testCaseInsensitiveKeys() {
+    ServerInfo server = server("http://server:8080/tfs");
+    workspace(server, true, "Folder");
+    WorkstationMappingsIndex index = new WorkstationMappingsIndex(Collections.singletonList(server));
+
+    assertEquals(!SystemInfo.isFileSystemCaseSensitive, !index.findWorkspaces(localPath("FOLDER/file.txt"), false).isEmpty());
+  }
+
+  public void testDuplicateMappedPath() {
+    ServerInfo server1 = server("http://server1:8080/tfs");
+    ServerInfo server2 = server("http://server2:8080/tfs");
+    workspace(server1, true, "a", "a/b");
+    workspace(server2, true, "ab");
+    WorkstationMappingsIndex index = new WorkstationMappingsIndex(Arrays.asList(server1, server2));
+    // nested mappings of the same server and sibling prefixes are not duplicates
+    assertNull(index.findDuplicateMappedPath());
+
+    WorkspaceInfo duplicate = workspace(server2, true, "a/b/c");
+    index = new WorkstationMappingsIndex(Arrays.asList(server1, server2));
+    assertEquals(duplicate.getWorkingFoldersCached().get(0).getLocalPath(), index.findDuplicateMappedPath());
+  }
+
+  public void testInvalidatedOnMappingChange() {
+    ServerInfo server = server("http://server:8080/tfs");
+    WorkspaceInfo workspace = workspace(server, true, "a");
+    WorkstationMappingsIndex index = new WorkstationMappingsIndex(Collections.singletonList(server));
+    assertTrue(index.isUpToDate());
+
+    workspace.addWorkingFolderInfo(new WorkingFolderInfo(WorkingFolderInfo.Status.Active, localPath("b"), "$/Project/b"));
+    assertFalse(index.isUpToDate());
+    index = new WorkstationMappingsIndex(Collections.singletonList(server));
+    assertEquals(Collections.singletonList(workspace), new ArrayList<>(index.findWorkspaces(localPath("b/file.txt"), false)));
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.core.tfs.operations;
+
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.GetOperation;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class LocalPathTreeTest extends TestCase {
+
+  private static GetOperation operation(String slocal) {
+    GetOperation operation = new GetOperation();
+    operation.setSlocal(slocal);
+    return operation;
+  }
+
+  private static String update(LocalPathTree tree, GetOperation operation) {
+    tree.updateSourcePath(operation);
+    return operation.getSlocal();
+  }
+
+  public void testSiblingWithCommonPrefixNotMoved() {
+    GetOperation folder = operation("/a");
+    GetOperation child = operation("/a/x");
+    GetOperation sibling = operation("/aa/y");
+    LocalPathTree tree = new LocalPathTree(Arrays.asList(folder, child, sibling));
+
+    tree.move("/a", "/b");
+    assertEquals("/b", update(tree, folder));
+    assertEquals("/b/x", update(tree, child));
+    assertEquals("/aa/y", update(tree, sibling));
+  }
+
+  public void testOnlyPrefixReplaced() {
+    GetOperation nested = operation("/a/a/a");
+    LocalPathTree tree = new LocalPathTree(Arrays.asList(operation("/a"), nested));
+
+    tree.move("/a", "/aa");
+    assertEquals("/aa/a/a", update(tree, nested));
+  }
+
+  public void testUncRoot() {
+    GetOperation folder = operation("\\\\server\\share\\Folder");
+    GetOperation child = operation("\\\\server\\share\\Folder\\File.txt");
+    GetOperation other = operation("\\\\server\\share\\Other\\File.txt");
+    LocalPathTree tree = new LocalPathTree(Arrays.asList(folder, child, other));
+
+    tree.move("\\\\server\\share\\Folder", "\\\\server\\share\\Renamed");
+    assertEquals("\\\\server\\share\\Renamed", update(tree, folder));
+    assertEquals("\\\\server\\share\\Renamed\\File.txt", update(tree, child));
+    assertEquals("\\\\server\\share\\Other\\File.txt", update(tree, other));
+  }
+
+  public void testSuccessiveMoves() {
+    GetOperation file = operation("/p/a/f");
+    LocalPathTree tree = new LocalPathTree(Arrays.asList(operation("/p"), operation("/p/a"), file));
+
+    tree.move("/p/a", "/p/b");
+    tree.move("/p", "/q");
+    assertEquals("/q/b/f", update(tree, file));
+    tree.move("/q/b", "/r");
+    assertEquals("/r/f", update(tree, file));
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.tests;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import junit.framework.TestCase;
+import org.jetbrains.tfsIntegration.core.TFSFileRevision;
+import org.jetbrains.tfsIntegration.core.tfs.AnnotationBuilder;
+
+import java.util.*;
+
+public class AnnotationBuilderTest extends TestCase {
+
+  private static TFSFileRevision revision(int changeset) {
+    return new TFSFileRevision(null, null, 1, new Date(), "", "", changeset);
+  }
+
+  private static AnnotationBuilder annotate(List<TFSFileRevision> revisions, Map<TFSFileRevision, String> contents)
+    throws VcsException {
+    return new AnnotationBuilder(revisions, contents::get);
+  }
+
+  public void testInsertedAndDeletedLines() throws VcsException {
+    TFSFileRevision rev1 = revision(1);
+    TFSFileRevision rev2 = revision(2);
+    TFSFileRevision rev3 = revision(3);
+    Map<TFSFileRevision, String> contents = new HashMap<>();
+    contents.put(rev1, "a\nb\nc\n");
+    contents.put(rev2, "a\nx\nb\nc\n");
+    contents.put(rev3, "a\nx\nc\ny\n");
+
+    AnnotationBuilder builder = annotate(Arrays.asList(rev3, rev2, rev1), contents);
+    assertEquals(contents.get(rev3), builder.getAnnotatedContent());
+    assertEquals(Arrays.<VcsFileRevision>asList(rev1, rev2, rev1, rev3), Arrays.asList(builder.getLineRevisions()));
+  }
+
+  public void testBaseAnnotation() throws VcsException {
+    TFSFileRevision rev1 = revision(1);
+    TFSFileRevision rev2 = revision(2);
+    TFSFileRevision rev3 = revision(3);
+    Map<TFSFileRevision, String> contents = new HashMap<>();
+    contents.put(rev2, "a\nx\nb\nc\n");
+    contents.put(rev3, "a\nx\nc\ny\n");
+
+    VcsFileRevision[] rev2Annotation = {rev1, rev2, rev1, rev1};
+    AnnotationBuilder builder = new AnnotationBuilder(Arrays.asList(rev3, rev2), contents::get, rev2Annotation);
+    assertEquals(Arrays.<VcsFileRevision>asList(rev1, rev2, rev1, rev3), Arrays.asList(builder.getLineRevisions()));
+  }
+
+  public void testSyntheticHistory() throws VcsException {
+    checkSyntheticHistory(2000, 100, 20);
+    checkSyntheticHistory(20000, 300, 50);
+  }
+
+  /**
+   * Each revision deletes and inserts some random lines. Lines are unique and tell the revision they were added in.
+   */
+  private static void checkSyntheticHistory(int linesCount, int revisionsCount, int changedLinesPerRevision) throws VcsException {
+    Random random = new Random(linesCount);
+    List<String> lines = new ArrayList<>(linesCount);
+    for (int i = 0; i < linesCount; i++) {
+      lines.add("0:" + i);
+    }
+
+    List<TFSFileRevision> revisions = new ArrayList<>(revisionsCount);
+    Map<TFSFileRevision, String> contents = new HashMap<>();
+    for (int changeset = 0; changeset < revisionsCount; changeset++) {
+      if (changeset > 0) {
+        for (int i = 0; i < changedLinesPerRevision; i++) {
+          lines.remove(random.nextInt(lines.size()));
+          lines.add(random.nextInt(lines.size() + 1), changeset + ":" + i);
+        }
+      }
+      TFSFileRevision revision = revision(changeset);
+      revisions.add(0, revision);
+      contents.put(revision, StringUtil.join(lines, "\n"));
+    }
+
+    AnnotationBuilder builder = annotate(revisions, contents);
+
+    VcsFileRevision[] lineRevisions = builder.getLineRevisions();
+    assertEquals(lines.size(), lineRevisions.length);
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      int changeset = Integer.parseInt(line.substring(0, line.indexOf(':')));
+      assertSame(line, revisions.get(revisionsCount - 1 - changeset), lineRevisions[i]);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.tests;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.ExtendedItem;
+import com.microsoft.schemas.teamfoundation._2005._06.versioncontrol.clientservices._03.PendingChange;
+import junit.framework.TestCase;
+import org.jetbrains.tfsIntegration.core.tfs.LocalItemsIndex;
+import org.jetbrains.tfsIntegration.core.tfs.VersionControlPath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LocalItemsIndexTest extends TestCase {
+
+  private static final String ROOT = SystemInfo.isWindows ? "C:\\workspace" : "/workspace";
+
+  private static String localPath(int i) {
+    return ROOT + "/folder" + i % 100 + "/File" + i + ".txt";
+  }
+
+  private static ExtendedItem extendedItem(int itemId, String localPath) {
+    ExtendedItem item = new ExtendedItem();
+    item.setItemid(itemId);
+    item.setLocal(VersionControlPath.toTfsRepresentation(localPath));
+    return item;
+  }
+
+  private static PendingChange pendingChange(int itemId, String localPath) {
+    PendingChange change = new PendingChange();
+    change.setItemid(itemId);
+    change.setLocal(VersionControlPath.toTfsRepresentation(localPath));
+    return change;
+  }
+
+  public void testMatching() {
+    List<ExtendedItem> items = new ArrayList<>();
+    items.add(extendedItem(1, localPath(1)));
+    items.add(extendedItem(2, localPath(2)));
+    items.add(extendedItem(3, localPath(3)));
+    LocalItemsIndex index = new LocalItemsIndex(Collections.singletonList(pendingChange(2, localPath(2))), items);
+
+    PendingChange change = index.findPendingChange(VersionControlPath.getLocalPathKey(localPath(2)));
+    assertNotNull(change);
+    assertSame(items.get(1), index.takeExtendedItem(change.getItemid()));
+    assertNull(index.takeExtendedItem(change.getItemid()));
+    assertNull(index.findPendingChange(VersionControlPath.getLocalPathKey(localPath(1))));
+
+    String key1 = VersionControlPath.getLocalPathKey(localPath(1));
+    assertSame(items.get(0), index.takeExtendedItem(key1));
+    assertNull(index.takeExtendedItem(key1));
+
+    assertEquals(1, index.getRemainingExtendedItems().size());
+    assertSame(items.get(2), index.getRemainingExtendedItems().iterator().next());
+  }
+
+  public void testFileSystemCaseSensitivity() {
+    LocalItemsIndex index = new LocalItemsIndex(Collections.emptyList(), Collections.singletonList(extendedItem(1, localPath(1))));
+    ExtendedItem item = index.takeExtendedItem(VersionControlPath.getLocalPathKey(localPath(1).toUpperCase()));
+    assertEquals(!SystemInfo.isFileSystemCaseSensitive, item != null);
+  }
+
+  public void testLookupsGrowLinearly() {
+    // matching each local item against all server items would read item ids about count^2 / 2 times
+    int count = 100000;
+    ItemIdReads reads = new ItemIdReads();
+    List<ExtendedItem> items = new ArrayList<>(count);
+    List<PendingChange> changes = new ArrayList<>(count / 10);
+    List<String> localPaths = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String localPath = localPath(i);
+      localPaths.add(localPath);
+      items.add(reads.extendedItem(i, localPath));
+      if (i % 10 == 0) {
+        changes.add(pendingChange(i, localPath));
+      }
+    }
+
+    LocalItemsIndex index = new LocalItemsIndex(changes, items);
+    int matched = 0;
+    for (String localPath : localPaths) {
+      String key = VersionControlPath.getLocalPathKey(localPath);
+      PendingChange change = index.findPendingChange(key);
+      ExtendedItem item = change != null ? index.takeExtendedItem(change.getItemid()) : null;
+      if (item == null) {
+        item = index.takeExtendedItem(key);
+      }
+      if (item != null) {
+        matched++;
+      }
+    }
+
+    assertEquals(count, matched);
+    assertTrue(index.getRemainingExtendedItems().isEmpty());
+    // ids are read once to index the items and once for every item matched by local path
+    assertTrue("item ids read " + reads.myCount + " times", reads.myCount <= 2 * count);
+  }
+
+  private static class ItemIdReads {
+    private int myCount;
+
+    private ExtendedItem extendedItem(int itemId, String localPath) {
+      ExtendedItem item = new ExtendedItem() {
+        @Override
+        public int getItemid() {
+          myCount++;
+          return super.getItemid();
+        }
+      };
+      item.setItemid(itemId);
+      item.setLocal(VersionControlPath.toTfsRepresentation(localPath));
+      return item;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2000-2008 JetBrains s.r.o.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.jetbrains.tfsIntegration.tests;
+
+import com.intellij.util.diff.FilesTooBigForDiffException;
+import junit.framework.TestCase;
+import org.jetbrains.tfsIntegration.core.tfs.conflicts.ThreeWayMerge;
+
+import java.nio.charset.StandardCharsets;
+
+public class ThreeWayMergeTest extends TestCase {
+
+  public void testOneSideChanged() throws FilesTooBigForDiffException {
+    doTest("a\nb\nc\n", "a\nB\nc\n", "a\nb\nc\n", "a\nB\nc\n");
+    doTest("a\nb\nc\n", "a\nb\nc\n", "a\nb\nC\n", "a\nb\nC\n");
+  }
+
+  public void testSeparatedChanges() throws FilesTooBigForDiffException {
+    doTest("a\nb\nc\nd\n", "A\nb\nc\nd\n", "a\nb\nc\nD\n", "A\nb\nc\nD\n");
+    doTest("a\nb\nc\n", "x\na\nb\nc\n", "a\nb\nc\ny\n", "x\na\nb\nc\ny\n");
+    doTest("a\nb\nc\n", "a\nc\n", "a\nb\nc\nd\n", "a\nc\nd\n");
+  }
+
+  public void testSameChanges() throws FilesTooBigForDiffException {
+    doTest("a\nb\nc\n", "a\nB\nc\n", "a\nB\nc\n", "a\nB\nc\n");
+    doTest("a\nb\nc\nd\n", "A\nb\nc\nD\n", "a\nb\nc\nD\n", "A\nb\nc\nD\n");
+  }
+
+  public void testLineSeparatorsKept() throws FilesTooBigForDiffException {
+    doTest("a\r\nb\r\nc\r\nd", "A\r\nb\r\nc\r\nd", "a\r\nb\r\nc\r\nD", "A\r\nb\r\nc\r\nD");
+  }
+
+  public void testOverlappingChanges() throws FilesTooBigForDiffException {
+    doTest("a\nb\nc\n", "a\nB\nc\n", "a\nX\nc\n", null);
+    // adjacent changes are left to the user
+    doTest("a\nb\nc\nd\n", "a\nB\nc\nd\n", "a\nb\nC\nd\n", null);
+  }
+
+  public void testBinary() throws FilesTooBigForDiffException {
+    doTest("a\0\nb\nc\nd\n", "A\0\nb\nc\nd\n", "a\0\nb\nc\nD\n", null);
+  }
+
+  private static void doTest(String base, String local, String server, String expected) throws FilesTooBigForDiffException {
+    byte[] merged = ThreeWayMerge.merge(bytes(base), bytes(local), bytes(server));
+    assertEquals(expected, merged != null ? new String(merged, StandardCharsets.UTF_8) : null);
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+}